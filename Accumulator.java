@@ -0,0 +1,23 @@
+/**
+ * The running answer of a Sum or Product while it is being simplified. The terms are handed
+ * out one at a time by nextTerm(), and each one's simplified answer is given back to add()
+ * before asking for the next. This lets Operator.simplifyAnswer() work through the terms with
+ * its own stack, the same way it works through the children of an Operator.
+ *
+ * An Accumulator is only used by one thread, for one simplification.
+ */
+interface Accumulator {
+
+    /* The next term to simplify, or null once every term has been added */
+    Node nextTerm();
+
+    /**
+     * Adds the simplified answer of the term last given by nextTerm(): a Number, or a fraction
+     * made by Rational.toNode()
+     * @return null, or an ErrorNode if it can't be done (such as dividing by zero)
+     */
+    Node add(Node answer);
+
+    /* The answer once every term has been added, reduced to lowest terms */
+    Node answer();
+}
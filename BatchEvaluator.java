@@ -0,0 +1,220 @@
+import java.util.Arrays;
+
+/**
+ * Evaluates one expression for a whole array of x values at once. Instead of running the
+ * Program once per x, each instruction is run over a whole column of values before moving on
+ * to the next instruction. The loops for whole numbers are simple enough for the JIT to unroll
+ * and vectorize, and overflow is detected with bit tricks instead of exceptions.
+ *
+ * The rows are worked on in blocks, so that the columns stay in the CPU cache. Any row that
+ * overflows a long or divides by zero is marked, and worked out again on its own by the Program
+ * at the end of its block.
+ */
+public class BatchEvaluator {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private final Program program;
+
+    public BatchEvaluator(Node tree) {
+        this(Program.compile(Optimizer.optimize(tree)));
+    }
+
+    public BatchEvaluator(Program program) {
+        this.program = program;
+    }
+
+    /**
+     * Evaluates the expression for each whole number in xs
+     * @see #evaluate(long[], long[], long[], long[])
+     */
+    public int evaluate(long[] xs, long[] numerators, long[] denominators) {
+        return evaluate(xs, null, numerators, denominators);
+    }
+
+    /**
+     * Evaluates the expression with x set to xNumerators[i]/xDenominators[i] for each row i, and
+     * stores the answer in lowest terms in numerators[i] and denominators[i]. A denominator of 0
+     * means the row has no answer which fits in longs: either it divides by zero, or the answer
+     * is too big. Program.evaluate() gives the ErrorNode or the big answer for those rows.
+     * @param xDenominators the bottoms of the x values, which must not be zero, or null if
+     *                      every x is a whole number
+     * @return how many rows have no answer in longs
+     */
+    public int evaluate(long[] xNumerators, long[] xDenominators, long[] numerators, long[] denominators) {
+        int rows = xNumerators.length;
+        if((xDenominators != null && xDenominators.length != rows)
+            || numerators.length < rows || denominators.length < rows) {
+            throw new IllegalArgumentException("Arrays have different lengths");
+        }
+
+        Block block = new Block(program.maxStack(), Math.min(rows, BLOCK_SIZE));
+        int missing = 0;
+        for(int start = 0; start < rows; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, rows - start);
+            missing += evaluateBlock(block, xNumerators, xDenominators, start, length, numerators, denominators);
+        }
+        return missing;
+    }
+
+    /* Scratch columns, one per stack slot */
+    private static class Block {
+        long[][] numerators;
+        long[][] denominators;
+        boolean[] whole; //if every value in the column is a whole number
+        boolean[] failed; //rows which need to be worked out again with the Program
+
+        Block(int maxStack, int size) {
+            numerators = new long[maxStack][size];
+            denominators = new long[maxStack][size];
+            whole = new boolean[maxStack];
+            failed = new boolean[size];
+        }
+    }
+
+    private int evaluateBlock(Block block, long[] xNumerators, long[] xDenominators, int start, int length,
+                              long[] numerators, long[] denominators) {
+        boolean[] failed = block.failed;
+        Arrays.fill(failed, 0, length, !program.hasSmallConstants());
+
+        if(program.hasSmallConstants()) {
+            int[] code = program.instructions();
+            long[] constants = program.longConstants();
+            int top = -1;
+
+            for(int instruction : code) {
+                int opcode = instruction & 0xFF;
+
+                if(opcode == Program.PUSH) {
+                    top++;
+                    Arrays.fill(block.numerators[top], 0, length, constants[instruction >>> 8]);
+                    Arrays.fill(block.denominators[top], 0, length, 1);
+                    block.whole[top] = true;
+                    continue;
+
+                } else if(opcode == Program.PUSH_X) {
+                    top++;
+                    pushX(block, top, xNumerators, xDenominators, start, length);
+                    continue;
+                }
+
+                top--;
+                long[] a = block.numerators[top];
+                long[] b = block.denominators[top];
+                long[] c = block.numerators[top+1];
+                long[] d = block.denominators[top+1];
+
+                if(block.whole[top] && block.whole[top+1] && opcode != Program.DIVIDE) {
+                    wholeNumbers(opcode, a, c, failed, length);
+                } else {
+                    for(int i = 0; i < length; i++) {
+                        if(!failed[i] && !Program.applyFast(opcode, a[i], b[i], c[i], d[i], a, b, i)) {
+                            failed[i] = true;
+                        }
+                    }
+                    block.whole[top] = false;
+                }
+            }
+
+            System.arraycopy(block.numerators[0], 0, numerators, start, length);
+            System.arraycopy(block.denominators[0], 0, denominators, start, length);
+        }
+
+        //Work out the rows which didn't fit in longs one at a time
+        int missing = 0;
+        for(int i = 0; i < length; i++) {
+            if(failed[i]) {
+                int row = start + i;
+                long xDenominator = (xDenominators == null) ? 1 : xDenominators[row];
+                Node answer = program.evaluate(Rational.of(xNumerators[row], xDenominator));
+
+                Rational value = answer.hasErrorMessage ? null : Rational.of(answer);
+                if(value == null || value.isBig()) {
+                    numerators[row] = 0;
+                    denominators[row] = 0;
+                    missing++;
+                } else {
+                    numerators[row] = value.longNumerator();
+                    denominators[row] = value.longDenominator();
+                }
+            }
+        }
+        return missing;
+    }
+
+    /* Copies the x values into a column */
+    private void pushX(Block block, int top, long[] xNumerators, long[] xDenominators, int start, int length) {
+        long[] column = block.numerators[top];
+        System.arraycopy(xNumerators, start, column, 0, length);
+
+        boolean whole = true;
+        if(xDenominators == null) {
+            Arrays.fill(block.denominators[top], 0, length, 1);
+        } else {
+            long[] bottoms = block.denominators[top];
+            System.arraycopy(xDenominators, start, bottoms, 0, length);
+            for(int i = 0; i < length; i++) {
+                if(bottoms[i] != 1) {
+                    whole = false;
+                    if(bottoms[i] <= 0 || column[i] == Long.MIN_VALUE) {
+                        block.failed[i] = true;
+                        continue;
+                    }
+                    //The instructions expect fractions in lowest terms
+                    long gcd = Rational.gcd(column[i], bottoms[i]);
+                    column[i] /= gcd;
+                    bottoms[i] /= gcd;
+                }
+            }
+        }
+
+        //Long.MIN_VALUE can't be negated, so leave those rows to the Program
+        for(int i = 0; i < length; i++) {
+            block.failed[i] |= column[i] == Long.MIN_VALUE;
+        }
+        block.whole[top] = whole;
+    }
+
+    /**
+     * + - or * on two columns of whole numbers, storing the answers in the first column. There
+     * are no branches in the loops: a row which overflows (or reaches Long.MIN_VALUE) is only
+     * marked in failed.
+     */
+    private static void wholeNumbers(int opcode, long[] a, long[] c, boolean[] failed, int length) {
+        switch(opcode) {
+            case Program.ADD: {
+                for(int i = 0; i < length; i++) {
+                    long x = a[i];
+                    long y = c[i];
+                    long sum = x + y;
+                    failed[i] |= (((x ^ sum) & (y ^ sum)) < 0) | (sum == Long.MIN_VALUE);
+                    a[i] = sum;
+                }
+            } break;
+
+            case Program.SUBTRACT: {
+                for(int i = 0; i < length; i++) {
+                    long x = a[i];
+                    long y = c[i];
+                    long difference = x - y;
+                    failed[i] |= (((x ^ y) & (x ^ difference)) < 0) | (difference == Long.MIN_VALUE);
+                    a[i] = difference;
+                }
+            } break;
+
+            case Program.MULTIPLY: {
+                for(int i = 0; i < length; i++) {
+                    long x = a[i];
+                    long y = c[i];
+                    long product = x * y;
+                    failed[i] |= (Math.multiplyHigh(x, y) != (product >> 63)) | (product == Long.MIN_VALUE);
+                    a[i] = product;
+                }
+            } break;
+
+            default: {
+                throw new Error("Invalid opcode: " + opcode);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Microbenchmarks for the parts of the calculator that other code depends on, so a change that
+ * makes them slower shows up before it ships. Each benchmark is defined once here, as a setup
+ * that returns the operation to time, and the inputs come from Workloads with fixed seeds, so
+ * every run measures the same work.
+ *
+ * The real measurements are made by the JMH module in benchmarks/, which forks a fresh JVM for
+ * every benchmark, warms up until steady state and can report allocations with -prof gc:
+ *
+ *     mvn -f benchmarks/pom.xml package
+ *     java -jar benchmarks/target/benchmarks.jar -prof gc
+ *
+ * main() is a quick check in one JVM, for when Maven isn't around. It warms each benchmark up
+ * for one round and reads bytes/op from the thread's allocation counter, so its numbers are
+ * rougher than JMH's, since every benchmark shares the JVM with the ones before it:
+ *
+ *     java Benchmarks [name filter] [-rounds n] [-millis n]
+ *
+ * For example "java Benchmarks parse" only runs benchmarks with "parse" in their name.
+ */
+public class Benchmarks {
+
+    private static final long SEED = 20240601L;
+
+    private static int rounds = 5;
+    private static long roundMillis = 1000;
+
+    //Results are stored here so the JIT can't decide they are unused
+    private static volatile Object sink;
+
+    private static final ArrayList<String> names = new ArrayList<>();
+    private static final ArrayList<Supplier<Runnable>> setups = new ArrayList<>();
+
+    public static void main(String[] args) {
+        String filter = "";
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-millis")) {
+                roundMillis = Long.parseLong(args[++i]);
+            } else {
+                filter = args[i];
+            }
+        }
+
+        addAll();
+
+        System.out.printf("%-36s %14s %12s %14s%n", "benchmark", "ns/op", "+-", "bytes/op");
+        for(int i = 0; i < names.size(); i++) {
+            if(names.get(i).contains(filter)) {
+                run(names.get(i), setups.get(i).get());
+            }
+        }
+    }
+
+    /**
+     * Sets up the benchmark called name and returns its operation. This is what the JMH module
+     * calls (by reflection, since this class has no package) for each of its forks.
+     * @throws IllegalArgumentException if there is no benchmark called name
+     */
+    public static Runnable operation(String name) {
+        addAll();
+        int index = names.indexOf(name);
+        if(index < 0) {
+            throw new IllegalArgumentException("No benchmark called " + name);
+        }
+        return setups.get(index).get();
+    }
+
+    private static void addAll() {
+        if(!names.isEmpty()) {
+            return;
+        }
+        addParseBenchmarks();
+        addSimplifyBenchmarks();
+        addRationalBenchmarks();
+        addEvaluateBenchmarks();
+        addRenderBenchmarks();
+    }
+
+    /**
+     * Adds a benchmark. The setup runs once, before timing starts, and returns the operation
+     * to time.
+     */
+    private static void add(String name, Supplier<Runnable> setup) {
+        names.add(name);
+        setups.add(setup);
+    }
+
+
+    private static void addParseBenchmarks() {
+        Parser parser = new Parser();
+        String[] shortInputs = Workloads.expressions(SEED, 1024, 8, Workloads.MIXED, 99);
+        //parse() sweeps the whole token list once per operator, so keep its long input smaller
+        String longInput = Workloads.expression(new Random(SEED), 2000, Workloads.MIXED, 99);
+        String veryLongInput = Workloads.expression(new Random(SEED), 200000, Workloads.MIXED, 99);
+
+        add("parse.short", () -> cycle(shortInputs, input -> parser.parse(input)));
+        add("parse.long", () -> () -> sink = parser.parse(longInput));
+        add("parseSinglePass.short", () -> cycle(shortInputs, input -> parser.parseSinglePass(input)));
+        add("parseSinglePass.long", () -> () -> sink = parser.parseSinglePass(longInput));
+        add("parseSinglePass.veryLong", () -> () -> sink = parser.parseSinglePass(veryLongInput));
+
+        //The same inputs with a bad character at the end, so rejecting can be compared with accepting
+        String[] invalidInputs = new String[shortInputs.length];
+        for(int i = 0; i < shortInputs.length; i++) {
+            invalidInputs[i] = shortInputs[i] + "#";
+        }
+        add("parseResult.short", () -> cycle(shortInputs, input -> parser.parseResult(input)));
+        add("parseResult.invalid", () -> cycle(invalidInputs, input -> parser.parseResult(input)));
+    }
+
+    private static void addSimplifyBenchmarks() {
+        Node[] integers = parseAll(Workloads.expressions(SEED, 1024, 16, Workloads.INTEGERS, 99));
+        Node[] fractions = parseAll(Workloads.expressions(SEED, 1024, 16, Workloads.FRACTIONS, 99));
+        Node bigFractions = parseAll(Workloads.expressions(SEED, 1, 500, Workloads.FRACTIONS, 999))[0];
+
+        add("simplify.integers", () -> cycle(integers, Node::simplify));
+        add("simplify.fractions", () -> cycle(fractions, Node::simplify));
+        add("simplify.fractions.values", () -> cycle(fractions, node -> node.simplify().values()));
+        add("simplifyAnswer.integers", () -> cycle(integers, Node::simplifyAnswer));
+        add("simplifyAnswer.fractions", () -> cycle(fractions, Node::simplifyAnswer));
+        add("simplifyAnswer.bigFractions", () -> () -> sink = bigFractions.simplifyAnswer());
+        add("optimize.fractions", () -> cycle(fractions, Optimizer::optimize));
+    }
+
+    /*
+     * Rational replaced Operator.simplifyFraction() and Operator.leastCommonMultiple(), so these
+     * measure its reducing, gcd and lcm across sizes of numbers
+     */
+    private static void addRationalBenchmarks() {
+        long[] ranges = {100, 1000000, 1L << 40};
+        String[] rangeNames = {"small", "medium", "large"};
+
+        for(int r = 0; r < ranges.length; r++) {
+            long max = ranges[r];
+            Random random = new Random(SEED);
+            long[] values = new long[1024];
+            for(int i = 0; i < values.length; i++) {
+                values[i] = 1 + Math.floorMod(random.nextLong(), max);
+            }
+
+            add("rational.of." + rangeNames[r], () -> new Runnable() {
+                int i = 0;
+                public void run() {
+                    sink = Rational.of(values[i & 1023], values[(i + 1) & 1023]);
+                    i++;
+                }
+            });
+            add("rational.gcd." + rangeNames[r], () -> new Runnable() {
+                int i = 0;
+                public void run() {
+                    sink = Rational.gcd(values[i & 1023], values[(i + 1) & 1023]);
+                    i++;
+                }
+            });
+            add("rational.leastCommonMultiple." + rangeNames[r], () -> new Runnable() {
+                int i = 0;
+                public void run() {
+                    try {
+                        sink = Rational.leastCommonMultiple(values[i & 1023], values[(i + 1) & 1023]);
+                    } catch(ArithmeticException tooBig) {
+                        sink = tooBig;
+                    }
+                    i++;
+                }
+            });
+            add("rational.add." + rangeNames[r], () -> new Runnable() {
+                int i = 0;
+                public void run() {
+                    Rational a = Rational.of(values[i & 1023], values[(i + 1) & 1023]);
+                    Rational b = Rational.of(values[(i + 2) & 1023], values[(i + 3) & 1023]);
+                    sink = a.add(b);
+                    i++;
+                }
+            });
+        }
+    }
+
+    /*
+     * The same expression evaluated over and over for different values of x, by a Program and by
+     * the class ExpressionCompiler generates for it, with whole numbers and with fractions for x
+     */
+    private static void addEvaluateBenchmarks() {
+        Node tree = Optimizer.optimize(new Parser().parse("3*x*x+2*x-7/x+5*x*x*x-4+x/3"));
+        Rational[] wholeValues = new Rational[1024];
+        Rational[] fractionValues = new Rational[1024];
+        Random random = new Random(SEED);
+        for(int i = 0; i < wholeValues.length; i++) {
+            wholeValues[i] = Rational.of(1 + random.nextInt(1000));
+            fractionValues[i] = Rational.of(1 + random.nextInt(1000), 1 + random.nextInt(100));
+        }
+
+        add("evaluate.program.integers", () -> cycle(wholeValues, Program.compile(tree)::evaluate));
+        add("evaluate.program.fractions", () -> cycle(fractionValues, Program.compile(tree)::evaluate));
+        add("evaluate.compiled.integers", () -> cycle(wholeValues, ExpressionCompiler.compile(tree)::evaluate));
+        add("evaluate.compiled.fractions", () -> cycle(fractionValues, ExpressionCompiler.compile(tree)::evaluate));
+    }
+
+    private static void addRenderBenchmarks() {
+        Node[] trees = parseAll(Workloads.expressions(SEED, 1024, 16, Workloads.MIXED, 99));
+        //printTree() doubles its width with every level, so only small trees are sensible
+        Node[] smallTrees = parseAll(Workloads.expressions(SEED, 1024, 4, Workloads.MIXED, 99));
+
+        add("toStringIncludingChildren", () -> cycle(trees, Node::toStringIncludingChildren));
+        add("printTree", () -> cycle(smallTrees, node -> {
+            quietly(() -> {
+                node.printTree();
+                return null;
+            });
+            return node;
+        }));
+    }
+
+
+    /* Runs one benchmark: warm up for one round, then measure the rest */
+    private static void run(String name, Runnable operation) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        measure(operation, roundMillis); //warm up
+
+        double[] nanosPerOp = new double[rounds];
+        long totalOps = 0;
+        long totalBytes = 0;
+        for(int r = 0; r < rounds; r++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long ops = measure(operation, roundMillis);
+            long elapsed = System.nanoTime() - start;
+            totalBytes += threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            totalOps += ops;
+            nanosPerOp[r] = (double) elapsed / ops;
+        }
+
+        double mean = 0;
+        for(double value : nanosPerOp) {
+            mean += value / rounds;
+        }
+        double variance = 0;
+        for(double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / Math.max(1, rounds - 1);
+        }
+        System.out.printf("%-36s %14.1f %12.1f %14.1f%n", name, mean, Math.sqrt(variance), (double) totalBytes / totalOps);
+    }
+
+    /* Runs the operation over and over for about millis, and returns how many times it ran */
+    private static long measure(Runnable operation, long millis) {
+        long end = System.nanoTime() + millis * 1_000_000;
+        long ops = 0;
+        //Check the clock every so often, not after every operation
+        int batch = 1;
+        while(System.nanoTime() < end) {
+            for(int i = 0; i < batch; i++) {
+                operation.run();
+            }
+            ops += batch;
+            if(batch < 1024) {
+                batch *= 2;
+            }
+        }
+        return ops;
+    }
+
+
+    /* An operation which goes through the inputs one at a time */
+    private static <T> Runnable cycle(T[] inputs, Function<T, Object> work) {
+        return new Runnable() {
+            int i = 0;
+            public void run() {
+                sink = work.apply(inputs[i]);
+                i = (i + 1) % inputs.length;
+            }
+        };
+    }
+
+    private static Node[] parseAll(String[] inputs) {
+        Parser parser = new Parser();
+        Node[] trees = new Node[inputs.length];
+        for(int i = 0; i < inputs.length; i++) {
+            trees[i] = parser.parseSinglePass(inputs[i]);
+        }
+        return trees;
+    }
+
+    private static final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+    /* Runs work with System.out thrown away, since printTree() prints */
+    private static Object quietly(Supplier<Object> work) {
+        PrintStream out = System.out;
+        System.setOut(nowhere);
+        try {
+            return work.get();
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
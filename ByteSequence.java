@@ -0,0 +1,71 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A CharSequence looking straight at some bytes of a ByteBuffer (such as a memory-mapped file),
+ * one char per byte. Nothing is copied, and the same ByteSequence can be moved from one line to
+ * the next with reset(), so reading a huge file doesn't make a String for every line.
+ *
+ * Bytes are read as Latin-1. The expressions are plain ASCII, so any other byte simply shows up
+ * as a character the Tokenizer doesn't accept.
+ */
+public final class ByteSequence implements CharSequence {
+
+    private final ByteBuffer bytes;
+    private int start;
+    private int end;
+
+    public ByteSequence(ByteBuffer bytes) {
+        this(bytes, 0, bytes.limit());
+    }
+
+    public ByteSequence(ByteBuffer bytes, int start, int end) {
+        this.bytes = bytes;
+        reset(start, end);
+    }
+
+    /* Points this at the bytes from start (inclusive) to end (exclusive) */
+    public void reset(int start, int end) {
+        if(start < 0 || end > bytes.limit() || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", limit " + bytes.limit());
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    public char charAt(int index) {
+        if(index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+        }
+        return (char) (bytes.get(start + index) & 0xFF);
+    }
+
+    /* Another view of the same bytes */
+    public ByteSequence subSequence(int from, int to) {
+        if(from < 0 || to > end - start || from > to) {
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + (end - start));
+        }
+        return new ByteSequence(bytes, start + from, start + to);
+    }
+
+    /* Position of the first c at or after from, or -1 */
+    public int indexOf(char c, int from) {
+        for(int i = start + Math.max(from, 0); i < end; i++) {
+            if((bytes.get(i) & 0xFF) == c) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    public String toString() {
+        char[] chars = new char[end - start];
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (bytes.get(start + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
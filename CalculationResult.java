@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+
+/**
+ * The outcome of working out one line of input with CalculatorService: either an answer to an
+ * expression, a verdict on an equation, or an error message.
+ */
+public class CalculationResult {
+
+    public final String input;
+
+    //The expression as it was parsed, written out without whitespace (null for an equation)
+    public final String expression;
+
+    //The simplified expression, or for an equation, both simplified sides with " = " between
+    public final String answer;
+
+    public final boolean isEquation;
+    public final boolean valid; //for an equation, if both sides are the same
+
+    //The steps of the simplification, or null if they weren't asked for
+    public final ArrayList<String> steps;
+
+    public final String errorMessage;
+    public final boolean hasErrorMessage;
+
+    //For an expression which didn't parse, the ParseResult error code and its index in input.
+    //Otherwise ParseResult.NONE and -1
+    public final int parseError;
+    public final int errorPosition;
+
+    private CalculationResult(String input, String expression, String answer, boolean isEquation, boolean valid,
+                              ArrayList<String> steps, String errorMessage, int parseError, int errorPosition) {
+        this.input = input;
+        this.expression = expression;
+        this.answer = answer;
+        this.isEquation = isEquation;
+        this.valid = valid;
+        this.steps = steps;
+        this.errorMessage = (errorMessage == null) ? "" : errorMessage;
+        this.hasErrorMessage = errorMessage != null;
+        this.parseError = parseError;
+        this.errorPosition = errorPosition;
+    }
+
+    public static CalculationResult answer(String input, String expression, String answer, ArrayList<String> steps) {
+        return new CalculationResult(input, expression, answer, false, false, steps, null, ParseResult.NONE, -1);
+    }
+
+    public static CalculationResult equation(String input, String equation, boolean valid) {
+        return new CalculationResult(input, null, equation, true, valid, null, null, ParseResult.NONE, -1);
+    }
+
+    public static CalculationResult error(String input, String message) {
+        return new CalculationResult(input, null, null, false, false, null, message, ParseResult.NONE, -1);
+    }
+
+    /**
+     * An expression which didn't parse
+     * @param offset where the text given to the parser starts in input, such as just after the
+     *               '=' for the right side of an equation
+     */
+    public static CalculationResult parseError(String input, ParseResult parsed, int offset) {
+        return new CalculationResult(input, null, null, false, false, null, parsed.message(),
+            parsed.error, parsed.position + offset);
+    }
+
+    /* The same text Calculator would show */
+    public String toString() {
+        if(hasErrorMessage) {
+            return errorMessage;
+        } else if(isEquation) {
+            return answer + (valid ? "\nThis equation is valid." : "\nThis equation is NOT valid.");
+        }
+        return "Answer: " + expression + " = " + answer;
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -39,11 +42,26 @@ public class Calculator {
     /**
      * The entry point of the program. Takes care of scanning user input, logging the history,
      * and exiting when the user asks it to.
+     *
+     * Run with --file input [output] to work out a whole file of expressions instead, one per
+     * line, writing one answer per line to output (or to the screen). See FileCalculator.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if(args.length > 0 && args[0].equals("--file")) {
+            if(args.length < 2 || args.length > 3) {
+                System.out.println("Usage: java Calculator --file input [output]");
+                return;
+            }
+            Path output = (args.length == 3) ? Paths.get(args[2]) : null;
+            new FileCalculator().run(Paths.get(args[1]), output);
+            return;
+        }
+
         HashMap<String, String> history = new HashMap<>();
 
-        Parser parser = new Parser();
+        ParseCache parseCache = new ParseCache();
+        EquationChecker checker = new EquationChecker();
+        EquationSolver solver = new EquationSolver();
 
         Scanner scanner = new Scanner(System.in);
 
@@ -63,7 +81,9 @@ public class Calculator {
                 System.out.println("    Example: 1 + 7 * -4");
                 System.out.println("    Example: (3 + 4*8)( 2 - 1)");
                 System.out.println("Also, input an equation to see if it is true.");
-                System.out.println("    Example: 1 + 5/3 - 2 = 7/3\n");
+                System.out.println("    Example: 1 + 5/3 - 2 = 7/3");
+                System.out.println("If the equation has x in it, the values of x which make it true are found.");
+                System.out.println("    Example: x*x - 1 = 3\n");
 
                 continue;
             }
@@ -80,12 +100,6 @@ public class Calculator {
                 continue;
             }
 
-            if(input.indexOf('x') != input.lastIndexOf('x')) {
-                System.out.println("This program can only handle one x symbol");
-                continue;
-            }
-
-
             if(input.indexOf('=') != -1) {
                 
                 if(input.indexOf('=') != input.lastIndexOf('=')) {
@@ -93,32 +107,50 @@ public class Calculator {
                     continue;
                 }
                 
-                Node leftRoot = parser.parse(input.substring(0,input.indexOf('=')));
-                Node rightRoot = parser.parse(input.substring(input.indexOf('=')+1, input.length()));
+                ParseResult leftParsed = parseCache.parseResult(input.substring(0,input.indexOf('=')));
+                ParseResult rightParsed = parseCache.parseResult(input.substring(input.indexOf('=')+1, input.length()));
 
-                if(leftRoot == null || rightRoot == null) {
+                if(!leftParsed.isValid()) {
+                    System.out.println(leftParsed.message());
+                    continue;
+                } else if(!rightParsed.isValid()) {
+                    System.out.println(rightParsed.message());
                     continue;
                 }
 
-                NodeWithHistory leftSimple = leftRoot.simplify();
-                NodeWithHistory rightSimple = rightRoot.simplify();
+                Node leftRoot = leftParsed.node;
+                Node rightRoot = rightParsed.node;
 
                 System.out.println("Left side:");
                 leftRoot.printTree();
                 System.out.println("Right side:");
                 rightRoot.printTree();
 
-                if(leftSimple.node.hasErrorMessage) {
-                    System.out.println(leftSimple.node.errorMessage);
+                if(leftRoot.hasChildVarOnLeft() || leftRoot.hasChildVarOnRight()
+                    || rightRoot.hasChildVarOnLeft() || rightRoot.hasChildVarOnRight()) {
+                    //With x in it, find the values of x which make it true
+                    EquationSolver.Solution solution = solver.solve(leftRoot, rightRoot);
+                    if(solution.kind == EquationSolver.Solution.ERROR) {
+                        System.out.println(solution.errorMessage);
+                        continue;
+                    }
+                    String equation = EquationChecker.describe(leftRoot) + " = " + EquationChecker.describe(rightRoot);
+                    System.out.println(boxMessage(equation+"\n"+solution));
+                    history.put(equation, solution.toString());
                     continue;
-                } else if(rightSimple.node.hasErrorMessage) {
-                    System.out.println(rightSimple.node.errorMessage);
+                }
+
+                //Both sides are compared as numbers, so 2/4 = 1/2 is valid
+                int verdict = checker.check(leftRoot, rightRoot);
+
+                if(verdict == EquationChecker.ERROR) {
+                    System.out.println(checker.errorMessage(leftRoot, rightRoot));
                     continue;
 
                 } else {
-                    String equation = leftSimple.node.toStringIncludingChildren() + " = " + rightSimple.node.toStringIncludingChildren();
+                    String equation = EquationChecker.describe(leftRoot) + " = " + EquationChecker.describe(rightRoot);
 
-                    if(leftSimple.node.toStringIncludingChildren().equals(rightSimple.node.toStringIncludingChildren())) {
+                    if(verdict == EquationChecker.VALID) {
                         System.out.println(boxMessage(equation+"\nThis equation is valid."));
                         history.put(equation, "valid");
                     } else {
@@ -132,17 +164,19 @@ public class Calculator {
             } else {
                 // Single Expression
 
-                Node root = parser.parse(input);
-                if(root == null) {
+                ParseResult parsed = parseCache.parseResult(input);
+                if(!parsed.isValid()) {
+                    System.out.println(parsed.message());
                     continue;
                 }
+                Node root = parsed.node;
 
                 root.printTree();
 
                 NodeWithHistory simpleWithHistory = root.simplify();
 
                 Node simple = simpleWithHistory.node;
-                ArrayList<String> valuesHistory = simpleWithHistory.values;
+                ArrayList<String> valuesHistory = simpleWithHistory.values();
 
                 if(simple.hasErrorMessage) {
                     System.out.println(simple.errorMessage);
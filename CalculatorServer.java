@@ -0,0 +1,295 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the calculator as a small HTTP server, so other programs can use it without going
+ * through stdin. Every endpoint takes a POST whose body is a JSON string or an array of JSON
+ * strings, and answers with a JSON array holding one object per string, in the same order:
+ *
+ *     POST /parse      ["1+2*3"]     [{"input":"1+2*3","expression":"1+2*3","tree":{...}}]
+ *     POST /simplify   ["1/2+1/3"]   [{"input":"1/2+1/3","expression":"1/2+1/3","answer":"5/6"}]
+ *     POST /check      ["1/2=2/4"]   [{"input":"1/2=2/4","equation":"1/2 = 1/2","valid":true}]
+ *
+ * A line that can't be worked out gets {"input":...,"error":"..."} instead, with a "position"
+ * too if the text didn't parse (the index in the input where the problem is). Add ?steps=true to
+ * /simplify to get the steps of each simplification as well.
+ *
+ * Responses always have a Content-Length, so clients can keep the connection open and send the
+ * next request (or several pipelined requests) on it. The lines of a batch are worked out at
+ * the same time by a CalculatorService.
+ *
+ * It is meant to run next to the programs using it, so it only listens on the loopback address
+ * unless it is given another address to listen on.
+ *
+ * Start it with: java CalculatorServer [port] [address]
+ */
+public class CalculatorServer {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    //Larger batches are turned away, so one request can't hold the server for too long
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    //Larger request bodies are turned away before they are read, for the same reason
+    public static final int MAX_BODY_BYTES = 8 * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ParseCache parseCache = new ParseCache(16384);
+    private final CalculatorService service;
+    private final CalculatorService serviceWithSteps;
+
+    /* A server on the loopback address, so only programs on this machine can reach it */
+    public CalculatorServer(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * A server listening on address, such as 0.0.0.0 for every interface. Call useNoDelay()
+     * before making the first server, or each response waits about 40ms before it is sent.
+     */
+    public CalculatorServer(InetAddress address, int port) throws IOException {
+        service = new CalculatorService(CalculatorService.DEFAULT_MAX_IN_FLIGHT, parseCache, false);
+        serviceWithSteps = new CalculatorService(CalculatorService.DEFAULT_MAX_IN_FLIGHT, parseCache, true);
+
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/parse", exchange -> handle(exchange, "/parse"));
+        server.createContext("/simplify", exchange -> handle(exchange, "/simplify"));
+        server.createContext("/check", exchange -> handle(exchange, "/check"));
+
+        handlers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        server.setExecutor(handlers);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /* The port the server is listening on, which is useful if it was started on port 0 */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /* Stops accepting requests, waiting up to delay seconds for the ones already started */
+    public void stop(int delay) {
+        server.stop(delay);
+        handlers.shutdown();
+        service.close();
+        serviceWithSteps.close();
+    }
+
+    /**
+     * Without this, a response's headers and body go out in separate packets, and Nagle's
+     * algorithm holds the body back for about 40ms waiting for the client's delayed ACK. The
+     * JDK's HttpServer only reads the setting once, so this has to be called before the first
+     * HttpServer is made. It is left alone if it was already set on the command line.
+     */
+    public static void useNoDelay() {
+        if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        useNoDelay();
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress address = (args.length > 1) ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        CalculatorServer server = new CalculatorServer(address, port);
+        server.start();
+        System.out.println("Calculator server listening on " + address.getHostAddress() + " port " + server.port());
+    }
+
+
+    private void handle(HttpExchange exchange, String endpoint) throws IOException {
+        try {
+            if(!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "{\"error\":\"Use POST\"}");
+                return;
+            }
+
+            String body = readBody(exchange);
+            if(body == null) {
+                respond(exchange, 413, "{\"error\":\"At most " + MAX_BODY_BYTES + " bytes per request\"}");
+                return;
+            }
+            ArrayList<String> inputs;
+            try {
+                inputs = Json.readStrings(body);
+            } catch(IllegalArgumentException badJson) {
+                respond(exchange, 400, "{\"error\":" + Json.quote(badJson.getMessage()) + "}");
+                return;
+            }
+            if(inputs.size() > MAX_BATCH_SIZE) {
+                respond(exchange, 413, "{\"error\":\"At most " + MAX_BATCH_SIZE + " expressions per request\"}");
+                return;
+            }
+
+            StringBuilder json = new StringBuilder();
+            json.append('[');
+            if(endpoint.equals("/parse")) {
+                for(int i = 0; i < inputs.size(); i++) {
+                    if(i > 0) {
+                        json.append(',');
+                    }
+                    appendParse(json, inputs.get(i));
+                }
+            } else {
+                boolean steps = "steps=true".equals(exchange.getRequestURI().getQuery());
+                CalculatorService calculator = steps ? serviceWithSteps : service;
+                boolean equations = endpoint.equals("/check");
+
+                List<CalculationResult> results = calculator.calculateAll(inputs);
+                for(int i = 0; i < results.size(); i++) {
+                    if(i > 0) {
+                        json.append(',');
+                    }
+                    CalculationResult result = results.get(i);
+                    if(result.isEquation != equations && !result.hasErrorMessage) {
+                        //An equation sent to /simplify, or an expression sent to /check
+                        String message = equations ? "Not an equation" : "Use /check for equations";
+                        result = CalculationResult.error(result.input, message);
+                    }
+                    appendResult(json, result);
+                }
+            }
+            json.append(']');
+            respond(exchange, 200, json.toString());
+
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "{\"error\":\"Server is shutting down\"}");
+        } catch(RuntimeException e) {
+            //A bug shouldn't leave the client waiting on a connection that never answers
+            e.printStackTrace();
+            respond(exchange, 500, "{\"error\":\"Internal server error\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /* The request body, or null if it is bigger than MAX_BODY_BYTES */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if(length != null && Long.parseLong(length.trim()) > MAX_BODY_BYTES) {
+                return null;
+            }
+        } catch(NumberFormatException badLength) {
+            //Leave it to the bounded read below
+        }
+
+        //A chunked body has no length, so read one byte past the limit to tell if it is over
+        try(InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readNBytes(MAX_BODY_BYTES + 1);
+            if(bytes.length > MAX_BODY_BYTES) {
+                return null;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void appendResult(StringBuilder json, CalculationResult result) {
+        json.append("{\"input\":");
+        Json.appendQuoted(json, result.input);
+
+        if(result.hasErrorMessage) {
+            json.append(",\"error\":");
+            Json.appendQuoted(json, result.errorMessage);
+            if(result.errorPosition >= 0) {
+                json.append(",\"position\":").append(result.errorPosition);
+            }
+
+        } else if(result.isEquation) {
+            json.append(",\"equation\":");
+            Json.appendQuoted(json, result.answer);
+            json.append(",\"valid\":").append(result.valid);
+
+        } else {
+            json.append(",\"expression\":");
+            Json.appendQuoted(json, result.expression);
+            json.append(",\"answer\":");
+            Json.appendQuoted(json, result.answer);
+            if(result.steps != null) {
+                json.append(",\"steps\":[");
+                for(int i = 0; i < result.steps.size(); i++) {
+                    if(i > 0) {
+                        json.append(',');
+                    }
+                    Json.appendQuoted(json, result.steps.get(i));
+                }
+                json.append(']');
+            }
+        }
+        json.append('}');
+    }
+
+    private void appendParse(StringBuilder json, String input) {
+        json.append("{\"input\":");
+        Json.appendQuoted(json, input);
+
+        ParseResult parsed = parseCache.parseResult(input);
+        if(!parsed.isValid()) {
+            json.append(",\"error\":");
+            Json.appendQuoted(json, parsed.message());
+            json.append(",\"position\":").append(parsed.position).append('}');
+            return;
+        }
+        Node root = parsed.node;
+        json.append(",\"expression\":");
+        Json.appendQuoted(json, root.toStringIncludingChildren());
+        json.append(",\"tree\":");
+        appendTree(json, root);
+        json.append('}');
+    }
+
+    /**
+     * Writes the tree as nested objects: {"number":"7"}, {"variable":"x"}, or
+     * {"operator":"+","left":{...},"right":{...}}. A stack of what is left to write (Nodes, and
+     * the text between them) is used instead of recursion.
+     */
+    private static void appendTree(StringBuilder json, Node root) {
+        ArrayList<Object> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            Object next = stack.remove(stack.size() - 1);
+            if(next instanceof String) {
+                json.append((String) next);
+                continue;
+            }
+
+            Node node = (Node) next;
+            if(node.isOperator()) {
+                json.append("{\"operator\":");
+                Json.appendQuoted(json, node.toString());
+                json.append(",\"left\":");
+                stack.add("}");
+                stack.add(node.right);
+                stack.add(",\"right\":");
+                stack.add(node.left);
+            } else {
+                json.append(node.isVariable() ? "{\"variable\":" : "{\"number\":");
+                Json.appendQuoted(json, node.toString());
+                json.append('}');
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A way to use the calculator from other code instead of through the Scanner loop in
+ * Calculator. Each line of input is worked out the same way Calculator does it (an expression
+ * is simplified, and an equation is checked by EquationChecker), but the result is returned as a
+ * CalculationResult instead of being printed.
+ *
+ * Lines don't depend on each other, so a batch is worked out on many threads at once, and the
+ * results always come back in the same order as the input. On Java 21 and later every line gets
+ * its own virtual thread. Before that, a fixed pool of platform threads is used.
+ *
+ * Only maxInFlight lines are worked on at any moment. Submitting more blocks the caller until
+ * one finishes, so a fast producer can't pile up an unbounded queue of work.
+ *
+ * A service can be shared by many threads. Call close() when done with it.
+ */
+public class CalculatorService implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final ParseCache parseCache;
+    private final boolean recordSteps;
+    private final EquationChecker checker = new EquationChecker();
+
+    /* A service with the default limits, which doesn't record steps */
+    public CalculatorService() {
+        this(DEFAULT_MAX_IN_FLIGHT, new ParseCache(), false);
+    }
+
+    /**
+     * @param maxInFlight how many lines can be worked on at once before submitting blocks
+     * @param parseCache where to parse the lines, which may be shared with other code
+     * @param recordSteps if each result should include the steps of the simplification. This
+     *                    is a lot slower, so leave it off when only the answer matters
+     */
+    public CalculatorService(int maxInFlight, ParseCache parseCache, boolean recordSteps) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.parseCache = parseCache;
+        this.recordSteps = recordSteps;
+        this.executor = newExecutor(maxInFlight);
+    }
+
+    /**
+     * A virtual thread per task if this Java has them. The method is looked up by reflection
+     * so that the code still compiles and runs on Java 17.
+     */
+    private static ExecutorService newExecutor(int maxInFlight) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException noVirtualThreads) {
+            int threads = Math.min(maxInFlight, Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "calculator-service");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+
+    /**
+     * Works out one line on another thread. Blocks while maxInFlight lines are already being
+     * worked on.
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public CompletableFuture<CalculationResult> submit(String input) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return calculate(input);
+                } finally {
+                    inFlight.release();
+                }
+            }, executor);
+        } catch(RuntimeException rejected) {
+            inFlight.release();
+            throw rejected;
+        }
+    }
+
+    /**
+     * Works out every line, and returns the results in the same order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<CalculationResult> calculateAll(List<String> inputs) throws InterruptedException {
+        ArrayList<CalculationResult> results = new ArrayList<>(inputs.size());
+        calculateAll(inputs.iterator(), results::add);
+        return results;
+    }
+
+    /**
+     * Works out lines as they are read from inputs, handing each result to output in the same
+     * order as the input. Only maxInFlight results are ever waiting to be handed over, so this
+     * works for streams of any length.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void calculateAll(Iterator<String> inputs, Consumer<CalculationResult> output) throws InterruptedException {
+        ArrayDeque<CompletableFuture<CalculationResult>> pending = new ArrayDeque<>();
+
+        while(inputs.hasNext()) {
+            if(pending.size() == maxInFlight) {
+                output.accept(pending.removeFirst().join());
+            }
+            pending.addLast(submit(inputs.next()));
+
+            //Hand over whatever is already done, without waiting
+            while(!pending.isEmpty() && pending.peekFirst().isDone()) {
+                output.accept(pending.removeFirst().join());
+            }
+        }
+
+        while(!pending.isEmpty()) {
+            output.accept(pending.removeFirst().join());
+        }
+    }
+
+    /**
+     * Works out one line on the calling thread. An expression gets its simplified answer, and an
+     * equation (with one '=') is checked by simplifying both sides.
+     */
+    public CalculationResult calculate(String input) {
+        int equals = input.indexOf('=');
+        if(equals == -1) {
+            return simplify(input);
+        }
+
+        if(equals != input.lastIndexOf('=')) {
+            return CalculationResult.error(input, "Too many equal signs");
+        }
+        return checkEquation(input, equals);
+    }
+
+    private CalculationResult simplify(String input) {
+        ParseResult parsed = parseCache.parseResult(input);
+        if(!parsed.isValid()) {
+            return CalculationResult.parseError(input, parsed, 0);
+        }
+        Node root = parsed.node;
+
+        String expression = root.toStringIncludingChildren();
+        if(!recordSteps) {
+            Node simple = root.simplifyAnswer();
+            if(simple.hasErrorMessage) {
+                return CalculationResult.error(input, simple.errorMessage);
+            }
+            return CalculationResult.answer(input, expression, simple.toStringIncludingChildren(), null);
+        }
+
+        NodeWithHistory simpleWithHistory = root.simplify();
+        if(simpleWithHistory.node.hasErrorMessage) {
+            return CalculationResult.error(input, simpleWithHistory.node.errorMessage);
+        }
+        return CalculationResult.answer(input, expression, simpleWithHistory.node.toStringIncludingChildren(),
+            simpleWithHistory.values());
+    }
+
+    private CalculationResult checkEquation(String input, int equals) {
+        ParseResult left = parseCache.parseResult(input.substring(0, equals));
+        if(!left.isValid()) {
+            return CalculationResult.parseError(input, left, 0);
+        }
+        ParseResult right = parseCache.parseResult(input.substring(equals + 1));
+        if(!right.isValid()) {
+            return CalculationResult.parseError(input, right, equals + 1);
+        }
+
+        int verdict = checker.check(left.node, right.node);
+        if(verdict == EquationChecker.ERROR) {
+            return CalculationResult.error(input, checker.errorMessage(left.node, right.node));
+        }
+        String equation = EquationChecker.describe(left.node) + " = " + EquationChecker.describe(right.node);
+        return CalculationResult.equation(input, equation, verdict == EquationChecker.VALID);
+    }
+
+
+    /* Stops the threads. Lines which were already submitted are still finished */
+    public void close() {
+        executor.shutdown();
+    }
+}
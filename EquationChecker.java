@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Decides if the two sides of an equation are equal by working both sides out to Rationals and
+ * comparing the numbers. Nothing is written out as text, and 2/4 = 1/2 is valid no matter how
+ * either side would be printed.
+ *
+ * When a side has x in it, both sides are worked out as PolynomialFractions instead, which are
+ * always in lowest terms, so the sides are the same expression exactly when the fractions are
+ * equal. A factor that cancels, like the x in x/x = 1, doesn't stop them being equal, since an
+ * equation is about the values of x where both sides can be worked out.
+ *
+ * If the polynomials would get too big (a degree over MAX_DEGREE), both sides are worked out at
+ * several values of x instead. Two different expressions can only agree at a few values of x
+ * (their difference only has so many roots), so if they agree at several they are the same
+ * expression, except with a vanishingly small chance. The values come from a fixed seed, so the
+ * same equation always gets the same answer. Values where either side divides by zero are
+ * skipped.
+ *
+ * A checker never changes, so one can be shared by many threads.
+ */
+public class EquationChecker {
+
+    /* Results of check() */
+    public static final int VALID = 0;
+    public static final int INVALID = 1;
+    public static final int ERROR = 2; //a side can't be worked out, such as 1/0
+
+    public static final int DEFAULT_SAMPLES = 6;
+
+    //Sides whose polynomials would have a higher degree than this are checked at values of x
+    public static final int MAX_DEGREE = 256;
+
+    private static final long SEED = 20211201L;
+
+    //Random values of x are a/b with -SAMPLE_RANGE <= a <= SAMPLE_RANGE and 1 <= b <= SAMPLE_RANGE
+    private static final int SAMPLE_RANGE = 1000;
+
+    //How many values of x which divide by zero to skip before giving up
+    private static final int MAX_SKIPPED = 32;
+
+    private final int samples;
+
+    public EquationChecker() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    /* @param samples how many values of x both sides have to agree at, when they are too big to compare as polynomials */
+    public EquationChecker(int samples) {
+        if(samples < 1) {
+            throw new IllegalArgumentException("Need at least 1 sample");
+        }
+        this.samples = samples;
+    }
+
+    /**
+     * Compares the two sides
+     * @param left a tree made of Numbers, Variables and Operators (such as one from Parser).
+     *             Every Variable is read as x.
+     * @param right the same, for the other side
+     * @return VALID, INVALID, or ERROR if a side can't be worked out
+     */
+    public int check(Node left, Node right) {
+        Program leftProgram = Program.compile(left);
+        Program rightProgram = Program.compile(right);
+
+        if(!leftProgram.usesVariable() && !rightProgram.usesVariable()) {
+            Rational leftValue = value(leftProgram, Rational.ZERO);
+            Rational rightValue = value(rightProgram, Rational.ZERO);
+            if(leftValue == null || rightValue == null) {
+                return ERROR;
+            }
+            return leftValue.equals(rightValue) ? VALID : INVALID;
+        }
+
+        try {
+            PolynomialFraction leftFraction = polynomialValue(left);
+            PolynomialFraction rightFraction = (leftFraction != null) ? polynomialValue(right) : null;
+            if(rightFraction != null) {
+                return leftFraction.subtract(rightFraction).isZero() ? VALID : INVALID;
+            }
+        } catch(ArithmeticException divideByZero) {
+            return ERROR;
+        }
+
+        Random random = new Random(SEED);
+        int agreed = 0;
+        int skipped = 0;
+        while(agreed < samples) {
+            Rational x = Rational.of(random.nextInt(2 * SAMPLE_RANGE + 1) - SAMPLE_RANGE, random.nextInt(SAMPLE_RANGE) + 1);
+            Rational leftValue = value(leftProgram, x);
+            Rational rightValue = value(rightProgram, x);
+
+            if(leftValue == null || rightValue == null) {
+                skipped++;
+                if(skipped > MAX_SKIPPED) {
+                    return ERROR;
+                }
+            } else if(!leftValue.equals(rightValue)) {
+                return INVALID;
+            } else {
+                agreed++;
+            }
+        }
+        return VALID;
+    }
+
+    /* Why check() gave ERROR for these sides */
+    public String errorMessage(Node left, Node right) {
+        Program leftProgram = Program.compile(left);
+        Program rightProgram = Program.compile(right);
+        if(leftProgram.usesVariable() || rightProgram.usesVariable()) {
+            return "No value of x could be found where both sides can be worked out";
+        }
+
+        Node leftAnswer = leftProgram.evaluate();
+        if(leftAnswer.hasErrorMessage) {
+            return leftAnswer.errorMessage;
+        }
+        return rightProgram.evaluate().errorMessage;
+    }
+
+    /**
+     * A side of an equation to show to the user: its simplified answer, or the side as it was
+     * written if it can't be simplified
+     */
+    public static String describe(Node side) {
+        Node answer = side.simplifyAnswer();
+        if(answer.hasErrorMessage) {
+            return side.toStringIncludingChildren();
+        }
+        return answer.toStringIncludingChildren();
+    }
+
+    /**
+     * The side as a PolynomialFraction, working through it in post-order
+     * @return null if its degree gets over MAX_DEGREE
+     * @throws ArithmeticException if it divides by zero for every x
+     */
+    private static PolynomialFraction polynomialValue(Node root) {
+        ArrayList<PolynomialFraction> values = new ArrayList<>();
+        for(Node node : Node.postOrder(root)) {
+            if(node.isVariable()) {
+                values.add(PolynomialFraction.of(Polynomial.X));
+                continue;
+            } else if(!node.isOperator()) {
+                values.add(PolynomialFraction.of(Polynomial.of(((Number) node).rational())));
+                continue;
+            }
+
+            PolynomialFraction right = values.remove(values.size() - 1);
+            PolynomialFraction left = values.remove(values.size() - 1);
+            PolynomialFraction value;
+            switch(node.value) {
+                case 0: value = left.add(right); break;
+                case 1: value = left.subtract(right); break;
+                case 2: value = left.multiply(right); break;
+                default: value = left.divide(right);
+            }
+            if(value.numerator.degree() > MAX_DEGREE || value.denominator.degree() > MAX_DEGREE) {
+                return null;
+            }
+            values.add(value);
+        }
+        return values.get(0);
+    }
+
+    /* The value at x, or null if it divides by zero */
+    private static Rational value(Program program, Rational x) {
+        Node answer = program.evaluate(x);
+        if(answer.hasErrorMessage) {
+            return null;
+        }
+        return Rational.of(answer);
+    }
+}
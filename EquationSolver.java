@@ -0,0 +1,437 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+
+/**
+ * Finds the values of x which make an equation true. Everything is moved to one side, so
+ * left = right becomes left - right = 0, and that side is worked out into a fraction of two
+ * polynomials. Only its top matters, so solving comes down to finding the roots of one
+ * polynomial:
+ *
+ * - A linear top, ax + b, has the one root -b/a, worked out exactly.
+ * - Otherwise every rational root p/q must have p dividing the constant term and q dividing
+ *   the leading term (once the coefficients are whole numbers), so those are tried first and
+ *   divided out when they work.
+ * - Whatever is left has no rational roots. Its real roots are found with a Sturm sequence,
+ *   which counts the roots between two numbers, and then narrowed down by halving the range a
+ *   fixed number of times.
+ *
+ * Values where either side divides by zero, like x = 0 in x*x/x = 0, are never solutions.
+ *
+ * A solver never changes, so one can be shared by many threads.
+ */
+public class EquationSolver {
+
+    //How many times the range around an irrational root is halved
+    public static final int ITERATIONS = 64;
+
+    //How many digits an approximate root is shown with
+    private static final MathContext DIGITS = new MathContext(10);
+
+    //Rational roots are only searched for when the constant and leading terms are at most this
+    //many bits, so finding their divisors stays cheap. Other roots are still found, approximately.
+    private static final int MAX_SEARCH_BITS = 40;
+
+    //At most this many candidate roots p/q are tried
+    private static final int MAX_CANDIDATES = 10000;
+
+    /**
+     * Solves left = right for x
+     * @param left a tree made of Numbers, Variables and Operators (such as one from Parser).
+     *             Every Variable is read as x.
+     * @param right the same, for the other side
+     */
+    public Solution solve(Node left, Node right) {
+        ArrayList<Polynomial> divisors = new ArrayList<>();
+        PolynomialFraction leftValue = value(left, divisors);
+        PolynomialFraction rightValue = (leftValue == null) ? null : value(right, divisors);
+        if(leftValue == null || rightValue == null) {
+            Node answer = (leftValue == null) ? left.simplifyAnswer() : right.simplifyAnswer();
+            return Solution.error(answer.errorMessage);
+        }
+
+        Polynomial top = leftValue.subtract(rightValue).numerator;
+        if(top.isZero()) {
+            return Solution.everyValue(!divisors.isEmpty());
+        }
+
+        //A root of anything divided by isn't a solution, even if it cancels out in the end
+        for(Polynomial divisor : divisors) {
+            Polynomial common = Polynomial.gcd(top, divisor);
+            while(common.degree() > 0) {
+                top = top.divideAndRemainder(common)[0];
+                common = Polynomial.gcd(top, divisor);
+            }
+        }
+
+        ArrayList<Rational> roots = new ArrayList<>();
+        ArrayList<Rational> approximateRoots = new ArrayList<>();
+        top = rationalRoots(top, roots);
+        if(top.degree() == 1) {
+            roots.add(linearRoot(top));
+        } else if(top.degree() > 1) {
+            realRoots(squareFree(top), roots, approximateRoots);
+        }
+
+        sort(roots);
+        sort(approximateRoots);
+        return Solution.roots(roots, approximateRoots);
+    }
+
+    /**
+     * Works out one side as a fraction of polynomials, adding the value of everything it
+     * divides by to divisors
+     * @return the value, or null if it divides by zero
+     */
+    private static PolynomialFraction value(Node root, ArrayList<Polynomial> divisors) {
+        ArrayList<PolynomialFraction> values = new ArrayList<>();
+        for(Node node : Node.postOrder(root)) {
+            if(node.isVariable()) {
+                values.add(PolynomialFraction.of(Polynomial.X));
+                continue;
+            } else if(!node.isOperator()) {
+                values.add(PolynomialFraction.of(Polynomial.of(((Number) node).rational())));
+                continue;
+            }
+
+            PolynomialFraction right = values.remove(values.size() - 1);
+            PolynomialFraction left = values.remove(values.size() - 1);
+            switch(node.value) {
+                case 0: values.add(left.add(right)); break;
+                case 1: values.add(left.subtract(right)); break;
+                case 2: values.add(left.multiply(right)); break;
+                default: {
+                    if(right.isZero()) {
+                        return null;
+                    }
+                    if(!right.numerator.isConstant()) {
+                        divisors.add(right.numerator);
+                    }
+                    values.add(left.divide(right));
+                }
+            }
+        }
+        return values.get(0);
+    }
+
+    /* The root of ax + b */
+    private static Rational linearRoot(Polynomial linear) {
+        return linear.coefficient(0).negate().divide(linear.coefficient(1));
+    }
+
+    /**
+     * Adds every rational root it can find to roots
+     * @return polynomial with those roots divided out
+     */
+    private static Polynomial rationalRoots(Polynomial polynomial, ArrayList<Rational> roots) {
+        //x = 0 is a root if there's no constant term
+        if(polynomial.degree() > 1 && polynomial.coefficient(0).isZero()) {
+            roots.add(Rational.ZERO);
+            while(polynomial.coefficient(0).isZero()) {
+                polynomial = polynomial.divideAndRemainder(Polynomial.X)[0];
+            }
+        }
+        if(polynomial.degree() <= 1) {
+            return polynomial;
+        }
+
+        BigInteger[] whole = wholeCoefficients(polynomial);
+        BigInteger constant = whole[0].abs();
+        BigInteger leading = whole[whole.length - 1].abs();
+        if(constant.bitLength() > MAX_SEARCH_BITS || leading.bitLength() > MAX_SEARCH_BITS) {
+            return polynomial;
+        }
+
+        ArrayList<Long> tops = divisors(constant.longValue());
+        ArrayList<Long> bottoms = divisors(leading.longValue());
+        if((long) tops.size() * bottoms.size() > MAX_CANDIDATES) {
+            return polynomial;
+        }
+
+        for(long bottom : bottoms) {
+            for(long top : tops) {
+                if(Rational.gcd(top, bottom) != 1) {
+                    continue; //the same number as a candidate already tried, such as 2/2
+                }
+                for(int sign = 1; sign >= -1; sign -= 2) {
+                    Rational candidate = Rational.of(sign * top, bottom);
+                    if(!polynomial.evaluate(candidate).isZero()) {
+                        continue;
+                    }
+                    roots.add(candidate);
+                    Polynomial factor = Polynomial.of(candidate.negate(), Rational.ONE);
+                    while(polynomial.degree() > 0 && polynomial.evaluate(candidate).isZero()) {
+                        polynomial = polynomial.divideAndRemainder(factor)[0];
+                    }
+                    if(polynomial.degree() <= 1) {
+                        return polynomial;
+                    }
+                }
+            }
+        }
+        return polynomial;
+    }
+
+    /* The coefficients multiplied by the least common multiple of their denominators */
+    private static BigInteger[] wholeCoefficients(Polynomial polynomial) {
+        BigInteger multiple = BigInteger.ONE;
+        for(int i = 0; i <= polynomial.degree(); i++) {
+            BigInteger denominator = polynomial.coefficient(i).denominator();
+            multiple = multiple.divide(multiple.gcd(denominator)).multiply(denominator);
+        }
+
+        BigInteger[] whole = new BigInteger[polynomial.degree() + 1];
+        for(int i = 0; i < whole.length; i++) {
+            Rational coefficient = polynomial.coefficient(i);
+            whole[i] = coefficient.numerator().multiply(multiple.divide(coefficient.denominator()));
+        }
+        return whole;
+    }
+
+    /* Every positive divisor of n, which must be positive, found by trial division up to its square root */
+    private static ArrayList<Long> divisors(long n) {
+        ArrayList<Long> small = new ArrayList<>();
+        ArrayList<Long> large = new ArrayList<>();
+        for(long d = 1; d * d <= n; d++) {
+            if(n % d == 0) {
+                small.add(d);
+                if(d != n / d) {
+                    large.add(n / d);
+                }
+            }
+        }
+        for(int i = large.size() - 1; i >= 0; i--) {
+            small.add(large.get(i));
+        }
+        return small;
+    }
+
+    /* The same roots, each only once, so that every real root is where the sign changes */
+    private static Polynomial squareFree(Polynomial polynomial) {
+        Polynomial repeated = Polynomial.gcd(polynomial, polynomial.derivative());
+        if(repeated.degree() <= 0) {
+            return polynomial;
+        }
+        return polynomial.divideAndRemainder(repeated)[0];
+    }
+
+    /**
+     * Finds the real roots of a polynomial with no repeated roots. A root which happens to be
+     * hit exactly goes in roots, the rest go in approximateRoots.
+     */
+    private static void realRoots(Polynomial polynomial, ArrayList<Rational> roots, ArrayList<Rational> approximateRoots) {
+        while(polynomial.degree() > 1) {
+            ArrayList<Rational> found = new ArrayList<>();
+            Rational hit = isolate(polynomial, roots, found);
+            if(hit == null) {
+                approximateRoots.addAll(found);
+                return;
+            }
+
+            //A range was about to be split right at a root, so divide it out and start again
+            roots.add(hit);
+            polynomial = polynomial.divideAndRemainder(Polynomial.of(hit.negate(), Rational.ONE))[0];
+        }
+        if(polynomial.degree() == 1) {
+            roots.add(linearRoot(polynomial));
+        }
+    }
+
+    /**
+     * Splits the range the roots are in until each part has one root, then narrows each one down
+     * @return null, or a root which a range would have been split at. Then nothing was added to
+     *         approximateRoots.
+     */
+    private static Rational isolate(Polynomial polynomial, ArrayList<Rational> roots, ArrayList<Rational> approximateRoots) {
+        ArrayList<Polynomial> sturm = sturmSequence(polynomial);
+
+        //Every root is strictly between -bound and bound (Cauchy's bound)
+        Rational bound = Rational.ZERO;
+        Rational leading = polynomial.leadingCoefficient();
+        for(int i = 0; i < polynomial.degree(); i++) {
+            Rational size = polynomial.coefficient(i).divide(leading);
+            size = (size.signum() < 0) ? size.negate() : size;
+            if(size.subtract(bound).signum() > 0) {
+                bound = size;
+            }
+        }
+        bound = bound.add(Rational.ONE);
+
+        //Ranges still to look at, and how many times each was split
+        ArrayList<Rational[]> ranges = new ArrayList<>();
+        ArrayList<Integer> depths = new ArrayList<>();
+        ranges.add(new Rational[] {bound.negate(), bound});
+        depths.add(0);
+
+        int rootsBefore = roots.size();
+        while(!ranges.isEmpty()) {
+            Rational[] range = ranges.remove(ranges.size() - 1);
+            int depth = depths.remove(depths.size() - 1);
+            Rational low = range[0];
+            Rational high = range[1];
+
+            int count = signChanges(sturm, low) - signChanges(sturm, high);
+            if(count == 0) {
+                continue;
+            }
+            if(count == 1) {
+                narrow(polynomial, low, high, roots, approximateRoots);
+                continue;
+            }
+            if(depth >= ITERATIONS) {
+                //The roots are too close together to tell apart
+                approximateRoots.add(midpoint(low, high));
+                continue;
+            }
+
+            Rational split = midpoint(low, high);
+            if(polynomial.evaluate(split).isZero()) {
+                //Forget the roots narrowed down so far, since they'll be found again
+                while(roots.size() > rootsBefore) {
+                    roots.remove(roots.size() - 1);
+                }
+                return split;
+            }
+            ranges.add(new Rational[] {low, split});
+            depths.add(depth + 1);
+            ranges.add(new Rational[] {split, high});
+            depths.add(depth + 1);
+        }
+        return null;
+    }
+
+    /* Halves the range around the one root between low and high, which aren't roots themselves */
+    private static void narrow(Polynomial polynomial, Rational low, Rational high,
+                               ArrayList<Rational> roots, ArrayList<Rational> approximateRoots) {
+        int lowSign = polynomial.evaluate(low).signum();
+        for(int i = 0; i < ITERATIONS; i++) {
+            Rational middle = midpoint(low, high);
+            int sign = polynomial.evaluate(middle).signum();
+            if(sign == 0) {
+                roots.add(middle);
+                return;
+            }
+            if(sign == lowSign) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        approximateRoots.add(midpoint(low, high));
+    }
+
+    /* p, p', and then the negated remainders of dividing each by the next, until one is zero */
+    private static ArrayList<Polynomial> sturmSequence(Polynomial polynomial) {
+        ArrayList<Polynomial> sequence = new ArrayList<>();
+        sequence.add(polynomial);
+        Polynomial next = polynomial.derivative();
+        while(!next.isZero()) {
+            sequence.add(next);
+            Polynomial previous = sequence.get(sequence.size() - 2);
+            next = previous.divideAndRemainder(next)[1].negate();
+        }
+        return sequence;
+    }
+
+    /* How many times the sign changes going along the sequence's values at x, ignoring zeros */
+    private static int signChanges(ArrayList<Polynomial> sequence, Rational x) {
+        int changes = 0;
+        int lastSign = 0;
+        for(Polynomial polynomial : sequence) {
+            int sign = polynomial.evaluate(x).signum();
+            if(sign != 0) {
+                if(lastSign != 0 && sign != lastSign) {
+                    changes++;
+                }
+                lastSign = sign;
+            }
+        }
+        return changes;
+    }
+
+    private static Rational midpoint(Rational low, Rational high) {
+        return low.add(high).divide(Rational.of(2));
+    }
+
+    /* Smallest first. There are only ever a few roots, so insertion sort is plenty */
+    private static void sort(ArrayList<Rational> values) {
+        for(int i = 1; i < values.size(); i++) {
+            Rational value = values.get(i);
+            int j = i - 1;
+            while(j >= 0 && values.get(j).subtract(value).signum() > 0) {
+                values.set(j + 1, values.get(j));
+                j--;
+            }
+            values.set(j + 1, value);
+        }
+    }
+
+
+    /**
+     * What solve() found: the exact roots and the approximate ones (either of which may be
+     * empty), every value of x, or an error if a side can't be worked out
+     */
+    public static class Solution {
+
+        public static final int ROOTS = 0;
+        public static final int EVERY_VALUE = 1;
+        public static final int ERROR = 2;
+
+        public final int kind;
+
+        //Smallest first
+        public final ArrayList<Rational> roots;
+        public final ArrayList<Rational> approximateRoots;
+
+        //For EVERY_VALUE, if some values of x divide by zero and don't count
+        public final boolean hasExceptions;
+
+        public final String errorMessage;
+
+        private Solution(int kind, ArrayList<Rational> roots, ArrayList<Rational> approximateRoots,
+                         boolean hasExceptions, String errorMessage) {
+            this.kind = kind;
+            this.roots = roots;
+            this.approximateRoots = approximateRoots;
+            this.hasExceptions = hasExceptions;
+            this.errorMessage = errorMessage;
+        }
+
+        static Solution roots(ArrayList<Rational> roots, ArrayList<Rational> approximateRoots) {
+            return new Solution(ROOTS, roots, approximateRoots, false, null);
+        }
+
+        static Solution everyValue(boolean hasExceptions) {
+            return new Solution(EVERY_VALUE, new ArrayList<>(), new ArrayList<>(), hasExceptions, null);
+        }
+
+        static Solution error(String message) {
+            return new Solution(ERROR, new ArrayList<>(), new ArrayList<>(), false, message);
+        }
+
+        /* Such as "x = -1 or x = 2" */
+        public String toString() {
+            if(kind == ERROR) {
+                return errorMessage;
+            }
+            if(kind == EVERY_VALUE) {
+                return hasExceptions ? "Every value of x where both sides can be worked out is a solution."
+                                     : "Every value of x is a solution.";
+            }
+            if(roots.isEmpty() && approximateRoots.isEmpty()) {
+                return "No value of x is a solution.";
+            }
+
+            String text = "";
+            for(Rational root : roots) {
+                text += (text.isEmpty() ? "" : " or ") + "x = " + root;
+            }
+            for(Rational root : approximateRoots) {
+                BigDecimal decimal = new BigDecimal(root.numerator()).divide(new BigDecimal(root.denominator()), DIGITS);
+                text += (text.isEmpty() ? "" : " or ") + "x ~ " + decimal.stripTrailingZeros().toPlainString();
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Something which can work out the answer to one expression, given a value for x. The answer
+ * is a Node in the same form simplifyAnswer() gives: a Number, a reduced fraction, or an
+ * ErrorNode (such as when dividing by zero).
+ */
+public interface Evaluator {
+
+    Node evaluate(Rational x);
+}
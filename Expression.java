@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * An immutable version of the expression tree. Every field is final and nothing is ever
+ * changed after construction, so once an Expression is built it can be handed to any number of
+ * threads and evaluated by all of them at once, without locks and without parsing it again.
+ *
+ * The Node classes stay as they are (Parser still builds Nodes, and Calculator still uses
+ * simplify() for the history). from() and toNode() convert between the two. A Node tree should
+ * be converted on one thread before the Expression is shared.
+ */
+public final class Expression implements Evaluator {
+
+    /* Kinds of Expression */
+    public static final int NUMBER = 0;
+    public static final int VARIABLE = 1;
+    public static final int OPERATOR = 2;
+
+    private final int kind;
+    private final Rational number; //for NUMBER
+    private final char name; //for VARIABLE
+    private final int operator; //for OPERATOR, the same values Operator uses (0 to 3 for + - * /)
+    private final Expression left;
+    private final Expression right;
+
+    private Expression(int kind, Rational number, char name, int operator, Expression left, Expression right) {
+        this.kind = kind;
+        this.number = number;
+        this.name = name;
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    public static Expression number(Rational value) {
+        return new Expression(NUMBER, value, (char) 0, -1, null, null);
+    }
+
+    public static Expression variable(char name) {
+        return new Expression(VARIABLE, null, name, -1, null, null);
+    }
+
+    public static Expression operator(int operator, Expression left, Expression right) {
+        if(operator < 0 || operator > 3) {
+            throw new IllegalArgumentException("Invalid operator value: " + operator);
+        }
+        if(left == null || right == null) {
+            throw new IllegalArgumentException("An operator needs two children");
+        }
+        return new Expression(OPERATOR, null, (char) 0, operator, left, right);
+    }
+
+    /**
+     * Copies a tree of Numbers, Variables and Operators (such as one from Parser). The Node tree
+     * isn't changed, and later changes to it don't affect the Expression.
+     */
+    public static Expression from(Node root) {
+        if(root.hasErrorMessage) {
+            throw new IllegalArgumentException("Cannot convert an error: " + root.errorMessage);
+        }
+        ArrayList<Expression> results = new ArrayList<>();
+        for(Node node : Node.postOrder(root)) {
+            if(node.isOperator()) {
+                Expression right = results.remove(results.size() - 1);
+                Expression left = results.remove(results.size() - 1);
+                results.add(operator(node.value(), left, right));
+            } else if(node.isVariable()) {
+                results.add(variable((char) node.value()));
+            } else {
+                results.add(number(((Number) node).rational()));
+            }
+        }
+        return results.get(0);
+    }
+
+    /* Builds a new mutable Node tree with the same shape, for code which still works on Nodes */
+    public Node toNode() {
+        ArrayList<Node> results = new ArrayList<>();
+        for(Expression expression : postOrder(this)) {
+            if(expression.kind == OPERATOR) {
+                Node right = results.remove(results.size() - 1);
+                Node left = results.remove(results.size() - 1);
+                results.add(new Operator(expression.operator, left, right));
+            } else if(expression.kind == VARIABLE) {
+                results.add(new Variable(expression.name));
+            } else {
+                results.add(expression.number.toNode());
+            }
+        }
+        return results.get(0);
+    }
+
+    /**
+     * Lists every Expression in the tree in post-order, so children come before their parent.
+     * Everything below works through this list instead of recursing, so deep trees can't
+     * overflow the call stack.
+     */
+    private static ArrayList<Expression> postOrder(Expression root) {
+        //Visit parent, right, left with a stack, then reverse it into left, right, parent
+        ArrayList<Expression> order = new ArrayList<>();
+        ArrayList<Expression> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            Expression expression = stack.remove(stack.size() - 1);
+            order.add(expression);
+            if(expression.kind == OPERATOR) {
+                stack.add(expression.left);
+                stack.add(expression.right);
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+
+    public int kind() {
+        return kind;
+    }
+
+    public boolean isOperator() {
+        return kind == OPERATOR;
+    }
+
+    public boolean isVariable() {
+        return kind == VARIABLE;
+    }
+
+    /* The value of a NUMBER */
+    public Rational number() {
+        return number;
+    }
+
+    /* The name of a VARIABLE */
+    public char name() {
+        return name;
+    }
+
+    /* The Operator value of an OPERATOR */
+    public int operator() {
+        return operator;
+    }
+
+    public Expression left() {
+        return left;
+    }
+
+    public Expression right() {
+        return right;
+    }
+
+    /* If there is a variable anywhere in the expression */
+    public boolean hasVariable() {
+        for(Expression expression : postOrder(this)) {
+            if(expression.kind == VARIABLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Works out the answer, the same as simplifyAnswer() on the Node tree: a Number, a reduced
+     * fraction, or an ErrorNode. A new Node is made for each call, so callers can't change
+     * anything that other threads see.
+     */
+    public Node simplifyAnswer() {
+        if(hasVariable()) {
+            //x has no value here, so simplify it as a polynomial instead
+            return toNode().simplifyAnswer();
+        }
+        return evaluate(Rational.ZERO);
+    }
+
+    /* Works out the answer with every variable set to x */
+    public Node evaluate(Rational x) {
+        try {
+            return value(x).toNode();
+        } catch(ArithmeticException divideByZero) {
+            //Rational.divide() uses the same message as Operator
+            if(Metrics.ENABLED) {
+                Metrics.dividedByZero();
+            }
+            return Node.ErrorNode(divideByZero.getMessage());
+        }
+    }
+
+    private Rational value(Rational x) {
+        ArrayList<Rational> results = new ArrayList<>();
+        for(Expression expression : postOrder(this)) {
+            if(expression.kind == NUMBER) {
+                results.add(expression.number);
+                continue;
+            } else if(expression.kind == VARIABLE) {
+                results.add(x);
+                continue;
+            }
+
+            Rational rightValue = results.remove(results.size() - 1);
+            Rational leftValue = results.remove(results.size() - 1);
+            switch(expression.operator) {
+                case 0: results.add(leftValue.add(rightValue)); break;
+                case 1: results.add(leftValue.subtract(rightValue)); break;
+                case 2: results.add(leftValue.multiply(rightValue)); break;
+                default: results.add(leftValue.divide(rightValue)); break;
+            }
+        }
+        return results.get(0);
+    }
+
+
+    public boolean equals(Object other) {
+        if(!(other instanceof Expression)) {
+            return false;
+        }
+        //Compare the two trees pair by pair with a stack
+        ArrayList<Expression> stack = new ArrayList<>();
+        stack.add(this);
+        stack.add((Expression) other);
+        while(!stack.isEmpty()) {
+            Expression b = stack.remove(stack.size() - 1);
+            Expression a = stack.remove(stack.size() - 1);
+            if(a == b) {
+                continue;
+            }
+            if(a.kind != b.kind) {
+                return false;
+            } else if(a.kind == NUMBER) {
+                if(!a.number.equals(b.number)) {
+                    return false;
+                }
+            } else if(a.kind == VARIABLE) {
+                if(a.name != b.name) {
+                    return false;
+                }
+            } else {
+                if(a.operator != b.operator) {
+                    return false;
+                }
+                stack.add(a.left);
+                stack.add(b.left);
+                stack.add(a.right);
+                stack.add(b.right);
+            }
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        int[] hashes = new int[16];
+        int count = 0;
+        for(Expression expression : postOrder(this)) {
+            int hash;
+            if(expression.kind == NUMBER) {
+                hash = expression.number.hashCode();
+            } else if(expression.kind == VARIABLE) {
+                hash = expression.name;
+            } else {
+                int rightHash = hashes[--count];
+                int leftHash = hashes[--count];
+                hash = (expression.operator * 31 + leftHash) * 31 + rightHash;
+            }
+            if(count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = hash;
+        }
+        return hashes[0];
+    }
+
+    /* The expression written out like toStringIncludingChildren() */
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        ArrayList<Expression> waiting = new ArrayList<>();
+
+        Expression expression = this;
+        while(true) {
+            while(expression.kind == OPERATOR) {
+                waiting.add(expression);
+                expression = expression.left;
+            }
+            if(expression.kind == NUMBER) {
+                text.append(expression.number);
+            } else {
+                text.append(expression.name);
+            }
+
+            if(waiting.isEmpty()) {
+                return text.toString();
+            }
+            Expression parent = waiting.remove(waiting.size() - 1);
+            text.append("+-*/".charAt(parent.operator));
+            expression = parent.right;
+        }
+    }
+}
@@ -0,0 +1,723 @@
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Turns an expression tree into a brand new class at runtime, so that HotSpot can compile and
+ * inline it just like code somebody wrote by hand. It works the same way as Program.runFast(),
+ * on the numerator and denominator of each value as plain longs, but every value gets its own
+ * local variables instead of a place in an array, and there is no loop or switch left. For the
+ * tree of x*x-2, the generated class is the same as:
+ *
+ *     final class CompiledExpression implements ExpressionCompiler.Function {
+ *         public Node apply(long xTop, long xBottom) {
+ *             long a = xTop, b = xBottom, c = xTop, d = xBottom;
+ *             long gcdA = Rational.gcd(a, d), gcdB = Rational.gcd(c, b);
+ *             a = Math.multiplyExact(a / gcdA, c / gcdB);
+ *             b = Math.multiplyExact(b / gcdB, d / gcdA);
+ *             a = Math.subtractExact(a, Math.multiplyExact(2, b));
+ *             return ExpressionCompiler.answer(a, b);
+ *         }
+ *     }
+ *
+ * Which values are whole numbers is known while compiling, so there is never any code for a
+ * denominator that is always 1. Subtracting 2 from a/b above doesn't need reducing either,
+ * since a/b is already in lowest terms. There is a second method, applyWhole(), for when x is a
+ * whole number too, which is where most of the gcds go away. Parts without x are worked out
+ * while compiling. If a long overflows, or something is divided by zero, the answer is worked
+ * out again by the Program with Rationals.
+ *
+ * The class file is written out byte by byte and loaded as a hidden class with
+ * Lookup.defineHiddenClass, so it can be unloaded again once nothing uses it.
+ *
+ * Generating a class is expensive compared to evaluating an expression once, so this is
+ * meant for expressions which are evaluated a lot. HotExpression takes care of deciding when.
+ */
+public class ExpressionCompiler {
+
+    /** The interface every generated class implements */
+    public interface Function {
+        /**
+         * Evaluates the expression with x set to xTop/xBottom, which must be in lowest terms
+         * with a positive bottom
+         * @return the answer, or null if something was divided by zero
+         * @throws ArithmeticException if a long wasn't big enough
+         */
+        Node apply(long xTop, long xBottom);
+
+        /* The same as apply(x, 1), but quicker, since the code knows that x has no bottom */
+        Node applyWhole(long x);
+    }
+
+    //Java 8 class files need a stack map frame wherever a branch goes
+    private static final int CLASS_VERSION = 52;
+
+    //A method's code can be up to 65535 bytes, but HotSpot never JIT-compiles one longer than
+    //8000 (unless DontCompileHugeMethods is turned off), and interpreted it is slower than a Program
+    private static final int MAX_CODE_LENGTH = 8000;
+
+    private static final String CLASS_NAME = "CompiledExpression";
+
+    //Local variables of the apply methods, counted in slots. A long takes two
+    private static final int X_TOP = 1;
+    private static final int X_BOTTOM = 3;
+    private static final int FIRST_GCD = 5;
+    private static final int SECOND_GCD = 7;
+    private static final int VALUES = 9; //the value at each depth of the stack has a top and a bottom
+
+    /**
+     * Compiles the tree into a new class
+     * @param root a tree made of Numbers, Variables and Operators. Every Variable is read as x.
+     * @return an Evaluator backed by the generated class, or null if the tree is too large for
+     *         the JIT to compile its method, or has a number too big for a long
+     */
+    public static Evaluator compile(Node root) {
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        byte[] classFile = compiler.writeClass(root);
+        if(classFile == null) {
+            return null;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return new CompiledEvaluator((Function) constructor.invoke(), Program.compile(root));
+
+        } catch(Throwable e) {
+            throw new Error("Could not load the generated class", e);
+        }
+    }
+
+    /* The answer in the same form as Program gives, or null if a long isn't enough for it */
+    static Node answer(long top, long bottom) {
+        if(top == Long.MIN_VALUE) {
+            return null;
+        }
+        if(bottom == 1) {
+            return new Number(top);
+        }
+        return new Operator(3, new Number(top), new Number(bottom));
+    }
+
+    /* Runs the generated code, and the Program with Rationals whenever that can't give the answer */
+    private static class CompiledEvaluator implements Evaluator {
+        private final Function function;
+        private final Program program;
+
+        CompiledEvaluator(Function function, Program program) {
+            this.function = function;
+            this.program = program;
+        }
+
+        public Node evaluate(Rational x) {
+            if(!x.isBig() && x.longNumerator() != Long.MIN_VALUE) {
+                try {
+                    Node answer = x.isInteger() ? function.applyWhole(x.longNumerator())
+                                                : function.apply(x.longNumerator(), x.longDenominator());
+                    if(answer != null) {
+                        return answer;
+                    }
+                } catch(ArithmeticException overflow) {
+                    //A long wasn't big enough
+                }
+            }
+            //This also gives the error for dividing by zero
+            return program.runRational(x);
+        }
+    }
+
+
+    private ConstantPool pool = new ConstantPool();
+    private int addExact;
+    private int subtractExact;
+    private int multiplyExact;
+    private int absExact;
+    private int signum;
+    private int gcd;
+    private int answer;
+    private int codeAttribute;
+    private int stackMapAttribute;
+
+    //The method being written
+    private ByteArrayOutputStream code;
+    private ArrayList<Integer> zeroChecks; //where each branch to returning null is
+    private int maxDepth;
+
+    //What is known about the value at each depth of the stack while compiling
+    private boolean[] whole; //if it has no bottom
+    private Rational[] constants; //its value, if it is a constant which hasn't been stored yet
+
+    private ExpressionCompiler() {
+    }
+
+    /* Writes the whole class file, or returns null if it can't be compiled */
+    private byte[] writeClass(Node root) {
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int functionInterface = pool.classRef("ExpressionCompiler$Function");
+        int objectConstructor = pool.memberRef(10, superClass, "<init>", "()V");
+        int math = pool.classRef("java/lang/Math");
+        addExact = pool.memberRef(10, math, "addExact", "(JJ)J");
+        subtractExact = pool.memberRef(10, math, "subtractExact", "(JJ)J");
+        multiplyExact = pool.memberRef(10, math, "multiplyExact", "(JJ)J");
+        absExact = pool.memberRef(10, math, "absExact", "(J)J");
+        signum = pool.memberRef(10, pool.classRef("java/lang/Long"), "signum", "(J)I");
+        gcd = pool.memberRef(10, pool.classRef("Rational"), "gcd", "(JJ)J");
+        answer = pool.memberRef(10, pool.classRef("ExpressionCompiler"), "answer", "(JJ)LNode;");
+        codeAttribute = pool.utf8("Code");
+        stackMapAttribute = pool.utf8("StackMapTable");
+
+        //public Node apply(long xTop, long xBottom) and public Node applyWhole(long x)
+        byte[] apply = writeApply(root, pool.utf8("apply"), pool.utf8("(JJ)LNode;"), false);
+        byte[] applyWhole = writeApply(root, pool.utf8("applyWhole"), pool.utf8("(J)LNode;"), true);
+        if(apply == null || applyWhole == null) {
+            return null;
+        }
+
+        int constructorName = pool.utf8("<init>");
+        int constructorType = pool.utf8("()V");
+        if(pool.size() > 0xFFFF) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, 0xCAFEBABE);
+        writeShort(out, 0);
+        writeShort(out, CLASS_VERSION);
+        pool.writeTo(out);
+
+        writeShort(out, 0x0031); //public final super
+        writeShort(out, thisClass);
+        writeShort(out, superClass);
+        writeShort(out, 1);
+        writeShort(out, functionInterface);
+        writeShort(out, 0); //no fields
+
+        writeShort(out, 3);
+
+        //public CompiledExpression() { super(); }
+        ByteArrayOutputStream constructor = new ByteArrayOutputStream();
+        constructor.write(0x2a); //aload_0
+        constructor.write(0xb7); //invokespecial
+        writeShort(constructor, objectConstructor);
+        constructor.write(0xb1); //return
+        writeMethod(out, constructorName, constructorType, 1, 1, constructor.toByteArray(), null);
+
+        out.write(apply, 0, apply.length);
+        out.write(applyWhole, 0, applyWhole.length);
+
+        writeShort(out, 0); //no class attributes
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes one of the apply methods, with the tree in postfix order leaving the answer's top
+     * and bottom in the first value
+     * @param wholeX if x is always a whole number, which is only given as one long
+     * @return the method, or null if it can't be compiled
+     */
+    private byte[] writeApply(Node root, int name, int type, boolean wholeX) {
+        code = new ByteArrayOutputStream();
+        zeroChecks = new ArrayList<>();
+        maxDepth = 0;
+
+        if(!emit(root, wholeX)) {
+            return null;
+        }
+        materialize(0);
+        load(VALUES);
+        if(whole[0]) {
+            code.write(0x0a); //lconst_1
+        } else {
+            load(VALUES + 2);
+        }
+        writeInstruction(0xb8, answer); //invokestatic
+        code.write(0xb0); //areturn
+
+        //Dividing by zero jumps here
+        int returnNull = code.size();
+        if(!zeroChecks.isEmpty()) {
+            code.write(0x01); //aconst_null
+            code.write(0xb0); //areturn
+        }
+        byte[] bytes = code.toByteArray();
+        for(int branch : zeroChecks) {
+            int offset = returnNull - branch;
+            bytes[branch + 1] = (byte) (offset >>> 8);
+            bytes[branch + 2] = (byte) offset;
+        }
+        if(bytes.length > MAX_CODE_LENGTH) {
+            return null;
+        }
+
+        //The locals where the branches go are the same as on entry: this and x. So the only
+        //frame is a same_frame_extended, whose offset is where the first frame is
+        byte[] stackMap = null;
+        if(!zeroChecks.isEmpty()) {
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            writeShort(frames, stackMapAttribute);
+            writeInt(frames, 5);
+            writeShort(frames, 1);
+            frames.write(251);
+            writeShort(frames, returnNull);
+            stackMap = frames.toByteArray();
+        }
+
+        ByteArrayOutputStream method = new ByteArrayOutputStream();
+        writeMethod(method, name, type, 8, VALUES + 4 * maxDepth, bytes, stackMap);
+        return method.toByteArray();
+    }
+
+    /**
+     * Emits the code for the tree, working through it in post-order instead of recursing. The
+     * value at each depth of the stack lives in local variables, so the operand stack is
+     * always empty between two nodes. Parts of the tree without x are worked out here instead.
+     * @return false if it can't be compiled, because the code is too long or a number is too
+     *         big for a long
+     */
+    private boolean emit(Node root, boolean wholeX) {
+        ArrayList<Node> nodes = Node.postOrder(root);
+        whole = new boolean[nodes.size()];
+        constants = new Rational[nodes.size()];
+        int depth = 0;
+
+        for(Node node : nodes) {
+            if(code.size() > MAX_CODE_LENGTH) {
+                return false;
+            }
+
+            if(node.isOperator()) {
+                depth--;
+                int left = depth - 1;
+                int right = depth;
+                if(!fold(node.value(), left, right)) {
+                    switch(node.value()) {
+                        case 0: emitAdd(left, right, addExact); break;
+                        case 1: emitAdd(left, right, subtractExact); break;
+                        case 2: emitMultiply(left, right, false); break;
+                        case 3: emitDivide(left, right); break;
+                        default: throw new Error("Invalid operator: " + node.value());
+                    }
+                }
+                continue;
+            }
+
+            if(node.isVariable()) {
+                load(X_TOP);
+                store(top(depth));
+                if(!wholeX) {
+                    load(X_BOTTOM);
+                    store(bottom(depth));
+                }
+                whole[depth] = wholeX;
+                constants[depth] = null;
+            } else {
+                Number number = (Number) node;
+                if(number.isBig()) {
+                    return false;
+                }
+                constants[depth] = number.rational();
+            }
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return true;
+    }
+
+    /**
+     * Works out an operator on two constants while compiling
+     * @return false if it has to be left to the generated code, because it divides by zero or
+     *         the answer is too big for longs
+     */
+    private boolean fold(int operator, int left, int right) {
+        Rational a = constants[left];
+        Rational b = constants[right];
+        if(a == null || b == null || (operator == 3 && b.isZero())) {
+            return false;
+        }
+        Rational result;
+        switch(operator) {
+            case 0: result = a.add(b); break;
+            case 1: result = a.subtract(b); break;
+            case 2: result = a.multiply(b); break;
+            default: result = a.divide(b); break;
+        }
+        if(result.isBig() || result.longNumerator() == Long.MIN_VALUE) {
+            return false;
+        }
+        constants[left] = result;
+        return true;
+    }
+
+    /* Stores the value at depth into its locals, if it is a constant which hasn't been yet */
+    private void materialize(int depth) {
+        Rational value = constants[depth];
+        if(value == null) {
+            return;
+        }
+        pushLong(value.longNumerator());
+        store(top(depth));
+        whole[depth] = value.isInteger();
+        if(!whole[depth]) {
+            pushLong(value.longDenominator());
+            store(bottom(depth));
+        }
+        constants[depth] = null;
+    }
+
+    /* a/b + c/d (or -), the same way Program.applyFast() does it */
+    private void emitAdd(int left, int right, int operation) {
+        materialize(left);
+        materialize(right);
+        int a = top(left);
+        int b = bottom(left);
+        int c = top(right);
+        int d = bottom(right);
+
+        if(whole[left] && whole[right]) {
+            load(a);
+            load(c);
+            call(operation);
+            store(a);
+        } else if(whole[right]) {
+            //(a + c*b)/b, which is still in lowest terms
+            load(a);
+            load(c);
+            load(b);
+            call(multiplyExact);
+            call(operation);
+            store(a);
+        } else if(whole[left]) {
+            //(a*d + c)/d, which is still in lowest terms
+            load(a);
+            load(d);
+            call(multiplyExact);
+            load(c);
+            call(operation);
+            store(a);
+            load(d);
+            store(b);
+            whole[left] = false;
+        } else {
+            //Over the least common multiple of b and d, and then reduced
+            gcd(b, d, FIRST_GCD);
+            load(a);
+            load(d);
+            load(FIRST_GCD);
+            code.write(0x6d); //ldiv
+            call(multiplyExact);
+            load(c);
+            load(b);
+            load(FIRST_GCD);
+            code.write(0x6d); //ldiv
+            call(multiplyExact);
+            call(operation);
+            store(a);
+            load(b);
+            load(FIRST_GCD);
+            code.write(0x6d); //ldiv
+            load(d);
+            call(multiplyExact);
+            store(b);
+            reduce(a, b);
+        }
+    }
+
+    /**
+     * a/b * c/d, reducing a with d and c with b first, the same way Program.applyFast() does it
+     * @param unitTop if c is 1 or -1, so it has nothing in common with b
+     */
+    private void emitMultiply(int left, int right, boolean unitTop) {
+        Rational constant = constants[right];
+        if(constant != null && Math.abs(constant.longNumerator()) == 1) {
+            unitTop = true;
+        }
+        materialize(left);
+        materialize(right);
+        int a = top(left);
+        int b = bottom(left);
+        int c = top(right);
+        int d = bottom(right);
+
+        if(whole[left] && whole[right]) {
+            load(a);
+            load(c);
+            call(multiplyExact);
+            store(a);
+        } else if(whole[right]) {
+            gcd(c, b, SECOND_GCD);
+            load(a);
+            load(c);
+            load(SECOND_GCD);
+            code.write(0x6d); //ldiv
+            call(multiplyExact);
+            store(a);
+            load(b);
+            load(SECOND_GCD);
+            code.write(0x6d); //ldiv
+            store(b);
+        } else {
+            boolean hasBottom = !whole[left] && !unitTop;
+            gcd(a, d, FIRST_GCD);
+            if(hasBottom) {
+                gcd(c, b, SECOND_GCD);
+            }
+            load(a);
+            load(FIRST_GCD);
+            code.write(0x6d); //ldiv
+            load(c);
+            if(hasBottom) {
+                load(SECOND_GCD);
+                code.write(0x6d); //ldiv
+            }
+            call(multiplyExact);
+            store(a);
+
+            if(whole[left]) {
+                load(d);
+                load(FIRST_GCD);
+                code.write(0x6d); //ldiv
+            } else {
+                load(b);
+                if(hasBottom) {
+                    load(SECOND_GCD);
+                    code.write(0x6d); //ldiv
+                }
+                load(d);
+                load(FIRST_GCD);
+                code.write(0x6d); //ldiv
+                call(multiplyExact);
+            }
+            store(b);
+            whole[left] = false;
+        }
+    }
+
+    /* a/b / c/d, which returns null if c is 0, and otherwise multiplies by c/d flipped over */
+    private void emitDivide(int left, int right) {
+        Rational constant = constants[right];
+        if(constant != null && !constant.isZero()) {
+            //Flipped over while compiling, so there is nothing to check
+            constants[right] = Rational.ONE.divide(constant);
+            emitMultiply(left, right, false);
+            return;
+        }
+        materialize(right);
+        int c = top(right);
+        int d = bottom(right);
+
+        load(c);
+        code.write(0x09); //lconst_0
+        code.write(0x94); //lcmp
+        zeroChecks.add(code.size());
+        writeInstruction(0x99, 0); //ifeq, which is filled in once the code is finished
+
+        //The bottom has to stay positive, so the sign of c moves to the top
+        load(c);
+        call(signum);
+        code.write(0x85); //i2l
+        if(!whole[right]) {
+            load(d);
+            code.write(0x69); //lmul
+        }
+        load(c);
+        call(absExact);
+        store(d);
+        store(c);
+
+        //A whole number flipped over has 1 or -1 on top
+        boolean unitTop = whole[right];
+        whole[right] = false;
+        emitMultiply(left, right, unitTop);
+    }
+
+    /* Stores the gcd of the longs in slots a and b into slot result */
+    private void gcd(int a, int b, int result) {
+        load(a);
+        load(b);
+        call(gcd);
+        store(result);
+    }
+
+    /* Divides the fraction in slots top and bottom by their gcd */
+    private void reduce(int top, int bottom) {
+        gcd(top, bottom, FIRST_GCD);
+        load(top);
+        load(FIRST_GCD);
+        code.write(0x6d); //ldiv
+        store(top);
+        load(bottom);
+        load(FIRST_GCD);
+        code.write(0x6d); //ldiv
+        store(bottom);
+    }
+
+    private static int top(int depth) {
+        return VALUES + 4 * depth;
+    }
+
+    private static int bottom(int depth) {
+        return VALUES + 4 * depth + 2;
+    }
+
+    private void pushLong(long value) {
+        if(value == 0 || value == 1) {
+            code.write(0x09 + (int) value); //lconst_0 or lconst_1
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.write(0x10); //bipush
+            code.write((int) value);
+            code.write(0x85); //i2l
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            writeInstruction(0x11, (int) value); //sipush
+            code.write(0x85); //i2l
+        } else {
+            writeInstruction(0x14, pool.longValue(value)); //ldc2_w
+        }
+    }
+
+    private void load(int slot) {
+        writeLocal(0x16, slot); //lload
+    }
+
+    private void store(int slot) {
+        writeLocal(0x37, slot); //lstore
+    }
+
+    private void call(int method) {
+        writeInstruction(0xb8, method); //invokestatic
+    }
+
+    /* A load or store, which needs the wide prefix past slot 255 */
+    private void writeLocal(int opcode, int slot) {
+        if(slot <= 255) {
+            code.write(opcode);
+            code.write(slot);
+        } else {
+            code.write(0xc4); //wide
+            writeInstruction(opcode, slot);
+        }
+    }
+
+    private void writeInstruction(int opcode, int operand) {
+        code.write(opcode);
+        writeShort(code, operand);
+    }
+
+    /* @param stackMap the whole StackMapTable attribute, or null if the code has no branches */
+    private void writeMethod(ByteArrayOutputStream out, int name, int type, int maxStack, int maxLocals,
+                             byte[] code, byte[] stackMap) {
+        int attributesLength = (stackMap != null) ? stackMap.length : 0;
+
+        writeShort(out, 0x0001); //public
+        writeShort(out, name);
+        writeShort(out, type);
+        writeShort(out, 1);
+
+        writeShort(out, codeAttribute);
+        writeInt(out, 12 + code.length + attributesLength);
+        writeShort(out, maxStack);
+        writeShort(out, maxLocals);
+        writeInt(out, code.length);
+        out.write(code, 0, code.length);
+        writeShort(out, 0); //no exception handlers
+        if(stackMap != null) {
+            writeShort(out, 1);
+            out.write(stackMap, 0, stackMap.length);
+        } else {
+            writeShort(out, 0);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+
+
+    /* The constant pool of the class file. Entries are shared when they are the same */
+    private static class ConstantPool {
+        private ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private HashMap<String, Integer> indexes = new HashMap<>();
+        private int count = 1; //entry 0 is never used
+
+        int utf8(String text) {
+            Integer index = indexes.get("utf8:" + text);
+            if(index == null) {
+                entries.write(1);
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                writeShort(entries, bytes.length);
+                entries.write(bytes, 0, bytes.length);
+                index = add("utf8:" + text);
+            }
+            return index;
+        }
+
+        int classRef(String name) {
+            Integer index = indexes.get("class:" + name);
+            if(index == null) {
+                int nameIndex = utf8(name);
+                entries.write(7);
+                writeShort(entries, nameIndex);
+                index = add("class:" + name);
+            }
+            return index;
+        }
+
+        /* A Fieldref (tag 9) or Methodref (tag 10) */
+        int memberRef(int tag, int owner, String name, String type) {
+            String key = tag + ":" + owner + "." + name + type;
+            Integer index = indexes.get(key);
+            if(index == null) {
+                int nameIndex = utf8(name);
+                int typeIndex = utf8(type);
+                entries.write(12); //NameAndType
+                writeShort(entries, nameIndex);
+                writeShort(entries, typeIndex);
+                int nameAndType = add("nameAndType:" + key);
+
+                entries.write(tag);
+                writeShort(entries, owner);
+                writeShort(entries, nameAndType);
+                index = add(key);
+            }
+            return index;
+        }
+
+        /* A Long, which takes up two entries */
+        int longValue(long value) {
+            Integer index = indexes.get("long:" + value);
+            if(index == null) {
+                entries.write(5);
+                writeInt(entries, (int) (value >>> 32));
+                writeInt(entries, (int) value);
+                index = add("long:" + value);
+                count++;
+            }
+            return index;
+        }
+
+        private int add(String key) {
+            indexes.put(key, count);
+            return count++;
+        }
+
+        int size() {
+            return count;
+        }
+
+        void writeTo(ByteArrayOutputStream out) {
+            writeShort(out, count);
+            byte[] bytes = entries.toByteArray();
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Works out a whole file of expressions, one per line, with no prompts, boxes or trees. This is
+ * what Calculator does when it is run with --file.
+ *
+ * The file is memory-mapped with FileChannel.map (a window at a time, so files bigger than 2GB
+ * work too) and cut into chunks of whole lines. Each chunk is worked out on its own thread,
+ * reading the lines straight out of the mapped bytes through a ByteSequence, and writes its
+ * answers into its own buffer. The buffers are written to the output in the same order as the
+ * chunks, so the output has exactly one line for each line of input:
+ *
+ *     an expression:       its answer, like 5/6
+ *     an equation:         valid or invalid
+ *     anything else:       error: and the message
+ */
+public class FileCalculator {
+
+    //How much of the file is mapped at once
+    private static final long MAP_SIZE = 1L << 28;
+
+    //About how many bytes of input each chunk gets
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final int threads;
+    private final Parser parser = new Parser();
+    private final EquationChecker checker = new EquationChecker();
+
+    public FileCalculator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FileCalculator(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Works out every line of input and writes the answers to output, or to standard output if
+     * output is null
+     */
+    public void run(Path input, Path output) throws IOException {
+        if(output == null) {
+            run(input, new FileOutputStream(FileDescriptor.out).getChannel());
+            return;
+        }
+        try(FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            run(input, out);
+        }
+    }
+
+    /* Works out every line of input and writes the answers to output */
+    public void run(Path input, WritableByteChannel output) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        //Chunks being worked on, oldest first. Only a few per thread are allowed, so the
+        //answers waiting to be written never take up much memory
+        ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+
+        try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+
+            while(position < size) {
+                long length = Math.min(MAP_SIZE, size - position);
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                //Stop the window after its last complete line, unless it reaches the end of the file
+                int end = (int) length;
+                if(position + length < size) {
+                    end = lastNewline(map, end) + 1;
+                    if(end == 0) {
+                        throw new IOException("Line longer than " + MAP_SIZE + " bytes at byte " + position);
+                    }
+                }
+
+                int start = 0;
+                while(start < end) {
+                    int chunkEnd = nextLineStart(map, Math.min(start + CHUNK_SIZE, end) - 1, end);
+                    ByteBuffer chunk = map.slice(start, chunkEnd - start);
+
+                    if(pending.size() >= threads * 4) {
+                        write(output, pending.removeFirst());
+                    }
+                    pending.addLast(pool.submit(() -> calculateChunk(chunk)));
+                    start = chunkEnd;
+                }
+                position += end;
+            }
+
+            while(!pending.isEmpty()) {
+                write(output, pending.removeFirst());
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /* Index of the last '\n' before end, or -1 */
+    private static int lastNewline(ByteBuffer bytes, int end) {
+        for(int i = end - 1; i >= 0; i--) {
+            if(bytes.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* Index just after the first '\n' at or after from, or end if there isn't one */
+    private static int nextLineStart(ByteBuffer bytes, int from, int end) {
+        for(int i = from; i < end; i++) {
+            if(bytes.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static void write(WritableByteChannel output, Future<ByteBuffer> chunk) throws IOException {
+        ByteBuffer answers;
+        try {
+            answers = chunk.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch(ExecutionException e) {
+            throw new IOException("Could not work out a chunk", e.getCause());
+        }
+        while(answers.hasRemaining()) {
+            output.write(answers);
+        }
+    }
+
+
+    /* Works out every line of the chunk, and returns the answers ready to be written */
+    private ByteBuffer calculateChunk(ByteBuffer chunk) {
+        Answers answers = new Answers(chunk.limit() / 2 + 16);
+        ByteSequence line = new ByteSequence(chunk);
+        ByteSequence left = new ByteSequence(chunk);
+        ByteSequence right = new ByteSequence(chunk);
+
+        int start = 0;
+        int limit = chunk.limit();
+        while(start < limit) {
+            int end = start;
+            while(end < limit && chunk.get(end) != '\n') {
+                end++;
+            }
+
+            line.reset(start, end);
+            int equals = line.indexOf('=', 0);
+            if(equals == -1) {
+                answers.append(simplify(line));
+            } else if(line.indexOf('=', equals + 1) != -1) {
+                answers.append("error: Too many equal signs");
+            } else {
+                left.reset(start, start + equals);
+                right.reset(start + equals + 1, end);
+                answers.append(check(left, right));
+            }
+            answers.newLine();
+
+            start = end + 1;
+        }
+        return answers.buffer();
+    }
+
+    private String simplify(CharSequence text) {
+        Node simple = answer(text);
+        if(simple.hasErrorMessage) {
+            return "error: " + simple.errorMessage;
+        }
+        return simple.toStringIncludingChildren();
+    }
+
+    private String check(CharSequence leftText, CharSequence rightText) {
+        ParseResult left = parser.parseResult(leftText);
+        if(!left.isValid()) {
+            return "error: " + left.message();
+        }
+        ParseResult right = parser.parseResult(rightText);
+        if(!right.isValid()) {
+            return "error: " + right.message();
+        }
+
+        int verdict = checker.check(left.node, right.node);
+        if(verdict == EquationChecker.ERROR) {
+            return "error: " + checker.errorMessage(left.node, right.node);
+        }
+        return (verdict == EquationChecker.VALID) ? "valid" : "invalid";
+    }
+
+    /* The simplified answer of the text, or an ErrorNode */
+    private Node answer(CharSequence text) {
+        ParseResult parsed = parser.parseResult(text);
+        if(!parsed.isValid()) {
+            return Node.ErrorNode(parsed.message());
+        }
+        return parsed.node.simplifyAnswer();
+    }
+
+
+    /* A growing buffer of output bytes */
+    private static class Answers {
+        private byte[] bytes;
+        private int length = 0;
+
+        Answers(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void append(String text) {
+            byte[] encoded = text.getBytes(StandardCharsets.ISO_8859_1);
+            ensureRoom(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+
+        void newLine() {
+            ensureRoom(1);
+            bytes[length++] = '\n';
+        }
+
+        private void ensureRoom(int extra) {
+            if(length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * A record of the steps taken while simplifying one node of the expression tree. Instead of
+ * building the text of every step as it goes, simplify() only remembers which histories were
+ * combined and which numbers came out of the arithmetic. The text is built by values() when
+ * someone actually asks to see the steps.
+ */
+public class History {
+
+    private Node node; //the node that was simplified
+    private History left; //histories of its children, or null for a leaf
+    private History right;
+
+    //Steps recorded after the children were simplified
+    private ArrayList<Step> steps;
+
+
+    /* History of a leaf, whose only step is itself */
+    public History(Node node) {
+        this.node = node;
+    }
+
+    /* History of an operator, which starts with the steps of its children */
+    public History(Node node, History left, History right) {
+        this.node = node;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Records the answer of a step. A whole number is always shown, while a fraction is left
+     * out if it reads the same as the step before.
+     */
+    public void addAnswer(Rational answer) {
+        addStep(new Step(answer, null, '\0', null, null));
+    }
+
+    /* Records the answer of a step which may have x in it. One without x is shown like a number */
+    public void addExpression(PolynomialFraction answer) {
+        if(answer.isPolynomial() && answer.numerator.isConstant()) {
+            addAnswer(answer.numerator.coefficient(0));
+        } else {
+            addStep(new Step(null, null, '\0', null, answer));
+        }
+    }
+
+    /* Records a step which is a pair of numbers, such as (top/bottom) before it is reduced */
+    public void addFraction(BigInteger top, char operator, BigInteger bottom) {
+        addStep(new Step(null, top, operator, bottom, null));
+    }
+
+    private void addStep(Step step) {
+        if(steps == null) {
+            steps = new ArrayList<>(2);
+        }
+        steps.add(step);
+    }
+
+
+    /**
+     * Builds the text of every step, starting with the original expression and ending with
+     * the answer. The histories are worked through children first, with a stack of their
+     * values, so a very deep tree can't overflow the call stack.
+     */
+    public ArrayList<String> values() {
+        //Visit parent, right, left with a stack, then go through it backwards
+        ArrayList<History> order = new ArrayList<>();
+        ArrayList<History> stack = new ArrayList<>();
+        stack.add(this);
+        while(!stack.isEmpty()) {
+            History history = stack.remove(stack.size() - 1);
+            order.add(history);
+            if(history.left != null) {
+                stack.add(history.left);
+                stack.add(history.right);
+            }
+        }
+
+        ArrayList<ArrayList<String>> results = new ArrayList<>();
+        for(int i = order.size() - 1; i >= 0; i--) {
+            History history = order.get(i);
+            ArrayList<String> values = new ArrayList<>();
+            if(history.left == null) {
+                values.add(history.node.toString());
+            } else {
+                ArrayList<String> rightValues = results.remove(results.size() - 1);
+                ArrayList<String> leftValues = results.remove(results.size() - 1);
+                history.addChildValues(values, leftValues, rightValues);
+            }
+            history.addSteps(values);
+            results.add(values);
+        }
+        return results.get(0);
+    }
+
+    private void addChildValues(ArrayList<String> values, ArrayList<String> leftValues, ArrayList<String> rightValues) {
+        String operator = node.toString();
+
+        //The left side is simplified first, while the right side is still as written
+        String rightText = node.right.toStringIncludingChildren();
+        for(String leftVal : leftValues) {
+            values.add("(" + leftVal + operator + rightText + ")");
+        }
+        String lastLeftVal = leftValues.get(leftValues.size() - 1);
+
+        //Then the right side, skipping its first value which was already shown
+        for(int i = 1; i < rightValues.size(); i++) {
+            values.add("(" + lastLeftVal + operator + rightValues.get(i) + ")");
+        }
+    }
+
+    private void addSteps(ArrayList<String> values) {
+        if(steps == null) {
+            return;
+        }
+        for(Step step : steps) {
+            if(step.expression != null) {
+                //Like a fraction, it's left out if it reads the same as the step before
+                String value = "(" + step.expression + ")";
+                if(values.isEmpty() || !value.equals(values.get(values.size() - 1))) {
+                    values.add(value);
+                }
+
+            } else if(step.answer == null) {
+                values.add("(" + step.top + step.operator + step.bottom + ")");
+
+            } else if(step.answer.isInteger()) {
+                values.add(step.answer.toString());
+
+            } else {
+                String value = "(" + step.answer + ")";
+                if(values.isEmpty() || !value.equals(values.get(values.size() - 1))) {
+                    values.add(value);
+                }
+            }
+        }
+    }
+
+
+    /* One step: either an answer, an unreduced pair of numbers, or an answer with x in it */
+    private static class Step {
+        Rational answer;
+        BigInteger top;
+        char operator;
+        BigInteger bottom;
+        PolynomialFraction expression;
+
+        Step(Rational answer, BigInteger top, char operator, BigInteger bottom, PolynomialFraction expression) {
+            this.answer = answer;
+            this.top = top;
+            this.operator = operator;
+            this.bottom = bottom;
+            this.expression = expression;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * An expression which starts out being evaluated by a Program, and is compiled into its own
+ * class by ExpressionCompiler once it has been evaluated enough times to be worth it. This way
+ * expressions which are only used a few times never pay for generating a class.
+ *
+ * The call count is only approximate when several threads share one HotExpression, but the
+ * expression is still only compiled once.
+ */
+public class HotExpression implements Evaluator {
+
+    public static final int DEFAULT_COMPILE_THRESHOLD = 10000;
+
+    private final Node tree;
+    private final Program program;
+    private final int compileThreshold;
+
+    private int calls = 0;
+    private volatile Evaluator compiled;
+
+    public HotExpression(Node tree) {
+        this(tree, DEFAULT_COMPILE_THRESHOLD);
+    }
+
+    /**
+     * @param tree a tree made of Numbers, Variables and Operators, which must not be changed
+     *             afterwards
+     * @param compileThreshold how many calls to evaluate() before the expression is compiled
+     */
+    public HotExpression(Node tree, int compileThreshold) {
+        //It will be evaluated many times, so it's worth making the tree smaller first
+        this.tree = Optimizer.optimize(tree);
+        this.program = Program.compile(this.tree);
+        this.compileThreshold = compileThreshold;
+    }
+
+    public Node evaluate(Rational x) {
+        Evaluator evaluator = compiled;
+        if(evaluator != null) {
+            return evaluator.evaluate(x);
+        }
+
+        calls++;
+        if(calls >= compileThreshold) {
+            compile();
+        }
+        return program.evaluate(x);
+    }
+
+    /* If the expression has been compiled into its own class yet */
+    public boolean isCompiled() {
+        return compiled != null && compiled != program;
+    }
+
+    private synchronized void compile() {
+        if(compiled == null) {
+            Evaluator evaluator = ExpressionCompiler.compile(tree);
+
+            //Too big for the JIT to compile, or has a number too big for a long, so it stays with the Program
+            compiled = (evaluator != null) ? evaluator : program;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+
+/**
+ * Just enough JSON for CalculatorServer: reading the strings of a request, and quoting strings
+ * for a response. Request bodies are either one string, like "1+2", or an array of strings,
+ * like ["1+2", "3/4 = 6/8"].
+ */
+public class Json {
+
+    /**
+     * Reads a request body
+     * @return the strings it holds, in order
+     * @throws IllegalArgumentException if the body is not a string or an array of strings
+     */
+    public static ArrayList<String> readStrings(String body) {
+        Json reader = new Json(body);
+        ArrayList<String> strings = new ArrayList<>();
+
+        reader.skipWhitespace();
+        if(reader.peek() == '[') {
+            reader.position++;
+            reader.skipWhitespace();
+            if(reader.peek() == ']') {
+                reader.position++;
+            } else {
+                while(true) {
+                    strings.add(reader.readString());
+                    reader.skipWhitespace();
+                    char c = reader.next();
+                    if(c == ']') {
+                        break;
+                    } else if(c != ',') {
+                        throw reader.error("Expected ',' or ']'");
+                    }
+                    reader.skipWhitespace();
+                }
+            }
+        } else {
+            strings.add(reader.readString());
+        }
+
+        reader.skipWhitespace();
+        if(reader.position != body.length()) {
+            throw reader.error("Unexpected text after the end");
+        }
+        return strings;
+    }
+
+    /* The string as a JSON string, with quotes around it */
+    public static String quote(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2);
+        appendQuoted(json, text);
+        return json.toString();
+    }
+
+    public static void appendQuoted(StringBuilder json, String text) {
+        json.append('"');
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch(c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default: {
+                    if(c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+
+    private final String text;
+    private int position = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    private char peek() {
+        if(position >= text.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        return text.charAt(position);
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private void skipWhitespace() {
+        while(position < text.length()) {
+            char c = text.charAt(position);
+            if(c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            position++;
+        }
+    }
+
+    private String readString() {
+        if(next() != '"') {
+            throw error("Expected a string");
+        }
+
+        StringBuilder string = new StringBuilder();
+        while(true) {
+            char c = next();
+            if(c == '"') {
+                return string.toString();
+            } else if(c != '\\') {
+                string.append(c);
+                continue;
+            }
+
+            char escaped = next();
+            switch(escaped) {
+                case '"': case '\\': case '/': string.append(escaped); break;
+                case 'b': string.append('\b'); break;
+                case 'f': string.append('\f'); break;
+                case 'n': string.append('\n'); break;
+                case 'r': string.append('\r'); break;
+                case 't': string.append('\t'); break;
+                case 'u': {
+                    if(position + 4 > text.length()) {
+                        throw error("Unexpected end of JSON");
+                    }
+                    try {
+                        string.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch(NumberFormatException e) {
+                        throw error("Invalid \\u escape");
+                    }
+                    position += 4;
+                } break;
+                default: {
+                    throw error("Invalid escape: \\" + escaped);
+                }
+            }
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at index " + position);
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how fast a CalculatorServer answers, without needing any outside tools. Several
+ * client threads send batches of random expressions over keep-alive connections for a while,
+ * then the throughput and latency are printed.
+ *
+ *     java LoadGenerator [url] [threads] [batch size] [seconds]
+ *
+ * With no url (or "local"), a server is started in this JVM on a free port first. The default
+ * is 4 threads sending batches of 100 expressions to /simplify for 10 seconds.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        String url = (args.length > 0) ? args[0] : "local";
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int batchSize = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+        int seconds = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+
+        CalculatorServer localServer = null;
+        if(url.equals("local")) {
+            CalculatorServer.useNoDelay();
+            localServer = new CalculatorServer(0);
+            localServer.start();
+            url = "http://localhost:" + localServer.port() + "/simplify";
+        }
+
+        try {
+            run(URI.create(url), threads, batchSize, seconds);
+        } finally {
+            if(localServer != null) {
+                localServer.stop(0);
+            }
+        }
+    }
+
+    private static void run(URI uri, int threads, int batchSize, int seconds) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean measuring = new AtomicBoolean(false); //false while warming up
+        LongAdder requests = new LongAdder();
+        LongAdder failures = new LongAdder();
+        ArrayList<long[]> latencies = new ArrayList<>(); //one array per thread, in microseconds
+        int[] latencyCounts = new int[threads]; //each only changed by its own thread
+
+        System.out.println("Sending batches of " + batchSize + " to " + uri + " from " + threads
+            + " threads for " + seconds + " seconds");
+
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++) {
+            int id = t;
+            long[] times = new long[1 << 20];
+            latencies.add(times);
+
+            workers[t] = new Thread(() -> {
+                Random random = new Random(id);
+                while(running.get()) {
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                        .POST(HttpRequest.BodyPublishers.ofString(randomBatch(random, batchSize)))
+                        .header("Content-Type", "application/json")
+                        .build();
+
+                    //Only requests started after the warm-up are counted
+                    boolean counted = measuring.get();
+                    long start = System.nanoTime();
+                    boolean failed;
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        failed = response.statusCode() != 200;
+                    } catch(IOException e) {
+                        failed = true;
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    if(!counted) {
+                        continue;
+                    }
+
+                    if(failed) {
+                        failures.increment();
+                    }
+                    if(latencyCounts[id] < times.length) {
+                        times[latencyCounts[id]++] = (System.nanoTime() - start) / 1000;
+                    }
+                    requests.increment();
+                }
+            });
+        }
+
+        //Warm up for a second so the JIT has compiled the hot paths, then start counting
+        for(Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(1000);
+        measuring.set(true);
+
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for(Thread worker : workers) {
+            worker.join();
+        }
+
+        int total = 0;
+        for(int count : latencyCounts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int filled = 0;
+        for(int t = 0; t < threads; t++) {
+            System.arraycopy(latencies.get(t), 0, all, filled, latencyCounts[t]);
+            filled += latencyCounts[t];
+        }
+        Arrays.sort(all);
+
+        long done = requests.sum();
+        System.out.printf("%d requests (%d failed) in %.1f s%n", done, failures.sum(), elapsed);
+        System.out.printf("%.0f requests/s, %.0f expressions/s%n", done / elapsed, done * batchSize / elapsed);
+        if(all.length > 0) {
+            System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), all[all.length - 1] / 1000.0);
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.round(fraction * (sorted.length - 1)));
+        return sorted[index] / 1000.0;
+    }
+
+    /* A JSON array of random expressions, like 3/4+(12-5)*7/9 */
+    private static String randomBatch(Random random, int size) {
+        StringBuilder json = new StringBuilder("[");
+        for(int i = 0; i < size; i++) {
+            if(i > 0) {
+                json.append(',');
+            }
+            Json.appendQuoted(json, Workloads.expression(random, 2 + random.nextInt(10), Workloads.MIXED, 99));
+        }
+        return json.append(']').toString();
+    }
+}
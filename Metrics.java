@@ -0,0 +1,263 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the hot parts of the engine: parsing, simplifying,
+ * reducing fractions, and dividing by zero. Everything is lock-free (LongAdders, and atomic
+ * arrays for the histograms), so many threads can record at once without waiting on each other.
+ *
+ * Metrics are off unless the JVM is started with -Dcalculator.metrics=true. ENABLED is a
+ * static final, so when it is false the JIT removes the checks and the timing code around
+ * them completely. When it is on, the numbers can be read with snapshot(), or through JMX as
+ * the MBean "calculator:type=Metrics" (in jconsole, for example). If the MBean can't be
+ * registered, mbeanError() says why, and a warning goes to the "calculator" System.Logger.
+ */
+public class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("calculator.metrics");
+
+    public static final String MBEAN_NAME = "calculator:type=Metrics";
+
+    private static final LongAdder parses = new LongAdder();
+    private static final LongAdder parseErrors = new LongAdder();
+    private static final LongAdder tokens = new LongAdder();
+    private static final Histogram parseNanos = new Histogram();
+
+    private static final LongAdder simplifies = new LongAdder();
+    private static final LongAdder simplifiedNodes = new LongAdder();
+    private static final Histogram simplifyNanos = new Histogram();
+
+    private static final LongAdder fractionReductions = new LongAdder();
+    private static final LongAdder divideByZeroErrors = new LongAdder();
+
+    //Why the MBean couldn't be registered, or null
+    private static final Exception mbeanError;
+
+    static {
+        Exception error = null;
+        if(ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(MBEAN_NAME));
+            } catch(Exception e) {
+                error = e;
+                System.getLogger("calculator").log(System.Logger.Level.WARNING, "Could not register the metrics MBean", e);
+            }
+        }
+        mbeanError = error;
+    }
+
+
+    //Called from the engine. Callers check ENABLED first, so none of this runs when it's off
+
+    /* A call to Parser.parse() or parseSinglePass() */
+    static void parsed(long nanos, int tokenCount, boolean valid) {
+        parses.increment();
+        if(!valid) {
+            parseErrors.increment();
+        }
+        tokens.add(tokenCount);
+        parseNanos.record(nanos);
+    }
+
+    /* A call to simplify() or simplifyAnswer() on a whole tree */
+    static void simplified(long nanos, int nodeCount) {
+        simplifies.increment();
+        simplifiedNodes.add(nodeCount);
+        simplifyNanos.record(nanos);
+    }
+
+    /* A fraction put into lowest terms */
+    static void fractionReduced() {
+        fractionReductions.increment();
+    }
+
+    /* An ErrorNode from dividing by zero */
+    static void dividedByZero() {
+        divideByZeroErrors.increment();
+    }
+
+
+    /* Why the MBean couldn't be registered, or null if it was (or metrics are off) */
+    public static Exception mbeanError() {
+        return mbeanError;
+    }
+
+    /* The numbers so far */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /* Sets everything back to zero */
+    public static void reset() {
+        parses.reset();
+        parseErrors.reset();
+        tokens.reset();
+        parseNanos.reset();
+        simplifies.reset();
+        simplifiedNodes.reset();
+        simplifyNanos.reset();
+        fractionReductions.reset();
+        divideByZeroErrors.reset();
+    }
+
+
+    /**
+     * The numbers at one moment. Each number is read on its own, so if other threads are busy
+     * recording, the numbers may be a few operations apart from each other.
+     */
+    public static class Snapshot {
+        public final long parses = Metrics.parses.sum();
+        public final long parseErrors = Metrics.parseErrors.sum();
+        public final long tokens = Metrics.tokens.sum();
+        public final long parseP50Nanos = parseNanos.percentile(0.50);
+        public final long parseP99Nanos = parseNanos.percentile(0.99);
+        public final long parseMaxNanos = parseNanos.max();
+
+        public final long simplifies = Metrics.simplifies.sum();
+        public final long simplifiedNodes = Metrics.simplifiedNodes.sum();
+        public final long simplifyP50Nanos = simplifyNanos.percentile(0.50);
+        public final long simplifyP99Nanos = simplifyNanos.percentile(0.99);
+        public final long simplifyMaxNanos = simplifyNanos.max();
+
+        public final long fractionReductions = Metrics.fractionReductions.sum();
+        public final long divideByZeroErrors = Metrics.divideByZeroErrors.sum();
+
+        private Snapshot() {
+        }
+
+        public String toString() {
+            return "parses=" + parses + " parseErrors=" + parseErrors + " tokens=" + tokens
+                + " parseP50=" + parseP50Nanos + "ns parseP99=" + parseP99Nanos + "ns parseMax=" + parseMaxNanos + "ns"
+                + "\nsimplifies=" + simplifies + " simplifiedNodes=" + simplifiedNodes
+                + " simplifyP50=" + simplifyP50Nanos + "ns simplifyP99=" + simplifyP99Nanos + "ns simplifyMax=" + simplifyMaxNanos + "ns"
+                + "\nfractionReductions=" + fractionReductions + " divideByZeroErrors=" + divideByZeroErrors;
+        }
+    }
+
+
+    /**
+     * A histogram of latencies in the style of HdrHistogram. Each power of two is split into
+     * SUB_BUCKETS equal buckets, so a value is only ever off by about 12% (1/8), whether it is
+     * 50 nanoseconds or 5 seconds, and the whole histogram is a fixed array of counters.
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long value) {
+            value = Math.max(value, 0);
+            counts.incrementAndGet(bucket(value));
+            total.increment();
+            sum.add(value);
+        }
+
+        /* Values below SUB_BUCKETS get a bucket each. Above that, the top bits pick the bucket */
+        private static int bucket(long value) {
+            if(value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int power = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /* The largest value which goes in the bucket */
+        private static long highestValue(int bucket) {
+            if(bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int power = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            long low = (1L << power) + (sub << (power - SUB_BUCKET_BITS));
+            return low + (1L << (power - SUB_BUCKET_BITS)) - 1;
+        }
+
+        public long count() {
+            return total.sum();
+        }
+
+        public double mean() {
+            long count = total.sum();
+            return (count == 0) ? 0 : (double) sum.sum() / count;
+        }
+
+        /**
+         * The value which fraction of the recorded values are at or below, rounded up to the
+         * top of its bucket
+         */
+        public long percentile(double fraction) {
+            long count = 0;
+            for(int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            if(count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if(seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return highestValue(counts.length() - 1);
+        }
+
+        public long max() {
+            for(int i = counts.length() - 1; i >= 0; i--) {
+                if(counts.get(i) != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        public void reset() {
+            for(int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            sum.reset();
+        }
+    }
+
+
+    /** What JMX shows. Every getter reads the current number */
+    public interface MetricsMXBean {
+        long getParses();
+        long getParseErrors();
+        long getTokens();
+        long getParseP50Nanos();
+        long getParseP99Nanos();
+        long getSimplifies();
+        long getSimplifiedNodes();
+        long getSimplifyP50Nanos();
+        long getSimplifyP99Nanos();
+        long getFractionReductions();
+        long getDivideByZeroErrors();
+        void reset();
+    }
+
+    private static class Bean implements MetricsMXBean {
+        public long getParses() { return parses.sum(); }
+        public long getParseErrors() { return parseErrors.sum(); }
+        public long getTokens() { return tokens.sum(); }
+        public long getParseP50Nanos() { return parseNanos.percentile(0.50); }
+        public long getParseP99Nanos() { return parseNanos.percentile(0.99); }
+        public long getSimplifies() { return simplifies.sum(); }
+        public long getSimplifiedNodes() { return simplifiedNodes.sum(); }
+        public long getSimplifyP50Nanos() { return simplifyNanos.percentile(0.50); }
+        public long getSimplifyP99Nanos() { return simplifyNanos.percentile(0.99); }
+        public long getFractionReductions() { return fractionReductions.sum(); }
+        public long getDivideByZeroErrors() { return divideByZeroErrors.sum(); }
+        public void reset() { Metrics.reset(); }
+    }
+}
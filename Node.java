@@ -1,5 +1,6 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 
 
 /**
@@ -40,6 +41,13 @@ public class Node {
         return null;
     }
 
+    /**
+     * Like simplify(), but skips recording the history. Use this when only the answer is needed
+     */
+    public Node simplifyAnswer() {
+        return null;
+    }
+
     /* Get the value of this node */
     public int value() {
         return value;
@@ -72,15 +80,58 @@ public class Node {
         if(right == null) {
             return isVariable();
         } else {
-            return right.hasChildVarOnLeft() || right.hasChildVarOnRight();
+            return containsVariable(right);
         }
     }
     public boolean hasChildVarOnLeft() {
         if(left == null) {
             return isVariable();
         } else {
-            return left.hasChildVarOnLeft() || left.hasChildVarOnRight();
+            return containsVariable(left);
+        }
+    }
+
+    /* If there is a Variable anywhere in the subtree. Uses a stack instead of recursion */
+    private static boolean containsVariable(Node root) {
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if(node.isVariable()) {
+                return true;
+            }
+            if(node.left != null) {
+                stack.add(node.left);
+            }
+            if(node.right != null) {
+                stack.add(node.right);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists every node of the tree in post-order, so children always come before their parent.
+     * Working through this list instead of recursing means even very deep trees (like
+     * 1+1+1+...+1, or thousands of nested parentheses) can't overflow the call stack.
+     */
+    public static ArrayList<Node> postOrder(Node root) {
+        //Visit parent, right, left with a stack, then reverse it into left, right, parent
+        ArrayList<Node> order = new ArrayList<>();
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            order.add(node);
+            if(node.left != null) {
+                stack.add(node.left);
+            }
+            if(node.right != null) {
+                stack.add(node.right);
+            }
         }
+        Collections.reverse(order);
+        return order;
     }
 
 
@@ -123,59 +174,59 @@ public class Node {
      * and code provided by Anna Rafferty.
      */
     private void printNodeInternal(List<Node> nodes, int level, int maxLevel) {
-        if (nodes.isEmpty() || areAllElementsNull(nodes)) {
-            return;
-        }
-        int floor = maxLevel - level;
-        int edgeLines = (int) Math.pow(2, (Math.max(floor - 1, 0)));
-        int firstSpaces = (int) Math.pow(2, (floor)) - 1;
-        int betweenSpaces = (int) Math.pow(2, (floor + 1)) - 1;
+        //One level per pass of the loop, instead of recursing once per level
+        for (; !nodes.isEmpty() && !areAllElementsNull(nodes); level++) {
+            int floor = maxLevel - level;
+            int edgeLines = (int) Math.pow(2, (Math.max(floor - 1, 0)));
+            int firstSpaces = (int) Math.pow(2, (floor)) - 1;
+            int betweenSpaces = (int) Math.pow(2, (floor + 1)) - 1;
+    
+            printWhitespaces(firstSpaces);
     
-        printWhitespaces(firstSpaces);
+            List<Node> newNodes = new ArrayList<Node>();
+            for (Node node : nodes) {
+                if (node != null) {
+                    System.out.print(node);
+                    newNodes.add(node.left);
+                    newNodes.add(node.right);
+                } else {
+                    newNodes.add(null);
+                    newNodes.add(null);
+                    System.out.print(" ");
+                }
     
-        List<Node> newNodes = new ArrayList<Node>();
-        for (Node node : nodes) {
-            if (node != null) {
-                System.out.print(node);
-                newNodes.add(node.left);
-                newNodes.add(node.right);
-            } else {
-                newNodes.add(null);
-                newNodes.add(null);
-                System.out.print(" ");
+                printWhitespaces(betweenSpaces);
             }
+            System.out.println("");
     
-            printWhitespaces(betweenSpaces);
-        }
-        System.out.println("");
+            for (int i = 1; i <= edgeLines; i++) {
+                for (int j = 0; j < nodes.size(); j++) {
+                    printWhitespaces(firstSpaces - i);
+                    if (nodes.get(j) == null) {
+                        printWhitespaces(edgeLines + edgeLines + i + 1);
+                        continue;
+                    }
     
-        for (int i = 1; i <= edgeLines; i++) {
-            for (int j = 0; j < nodes.size(); j++) {
-                printWhitespaces(firstSpaces - i);
-                if (nodes.get(j) == null) {
-                    printWhitespaces(edgeLines + edgeLines + i + 1);
-                    continue;
-                }
+                    if (nodes.get(j).left != null)
+                        System.out.print("/");
+                    else
+                        printWhitespaces(1);
     
-                if (nodes.get(j).left != null)
-                    System.out.print("/");
-                else
-                    printWhitespaces(1);
+                    printWhitespaces(i + i - 1);
     
-                printWhitespaces(i + i - 1);
+                    if (nodes.get(j).right != null)
+                        System.out.print("\\");
+                    else
+                        printWhitespaces(1);
     
-                if (nodes.get(j).right != null)
-                    System.out.print("\\");
-                else
-                    printWhitespaces(1);
+                    printWhitespaces(edgeLines + edgeLines - i);
+                }
     
-                printWhitespaces(edgeLines + edgeLines - i);
+                System.out.println("");
             }
     
-            System.out.println("");
+            nodes = newNodes;
         }
-    
-        printNodeInternal(newNodes, level + 1, maxLevel);
     }
     
     private static void printWhitespaces(int count) {
@@ -184,10 +235,24 @@ public class Node {
     }
     
     private static int maxLevel(Node node) {
-        if (node == null) {
-            return 0;
+        //Counts the levels one at a time, instead of recursing down every path
+        int levels = 0;
+        List<Node> level = new ArrayList<Node>();
+        if (node != null) {
+            level.add(node);
+        }
+        while (!level.isEmpty()) {
+            levels++;
+            List<Node> next = new ArrayList<Node>();
+            for (Node n : level) {
+                if (n.left != null)
+                    next.add(n.left);
+                if (n.right != null)
+                    next.add(n.right);
+            }
+            level = next;
         }
-        return Math.max(maxLevel(node.left), maxLevel(node.right)) + 1;
+        return levels;
     }
     
     private static boolean areAllElementsNull(List<Node> list) {
@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Builds expression trees where every distinct subtree exists only once (hash-consing). Asking
+ * the factory for a node which is structurally the same as one it already made gives back that
+ * same node, so in (3/7+2/9)*(3/7+2/9)-(3/7+2/9) all three copies of 3/7+2/9 are one object.
+ *
+ * Because equal subtrees are the same object, the factory can also remember the answer of each
+ * subtree it has simplified, and simplify() works out each distinct subtree only once.
+ *
+ * Nodes made by a factory are shared, so they must never be changed. A factory is not safe to
+ * use from several threads at once.
+ */
+public class NodeFactory {
+
+    //Keys are Rationals for numbers, Characters for variables, and OperatorKeys for operators
+    private HashMap<Object, Node> nodes = new HashMap<>();
+
+    //Answers of subtrees which have been simplified
+    private IdentityHashMap<Node, Node> answers = new IdentityHashMap<>();
+
+
+    /* A Number, or for a fraction, an Operator dividing two Numbers */
+    public Node number(Rational value) {
+        if(!value.isInteger()) {
+            return operator(3, number(Rational.of(value.numerator())), number(Rational.of(value.denominator())));
+        }
+        Node node = nodes.get(value);
+        if(node == null) {
+            node = value.toNode();
+            nodes.put(value, node);
+        }
+        return node;
+    }
+
+    public Node variable(char name) {
+        Character key = name;
+        Node node = nodes.get(key);
+        if(node == null) {
+            node = new Variable(name);
+            nodes.put(key, node);
+        }
+        return node;
+    }
+
+    /* An operator whose children were made by this factory */
+    public Node operator(int value, Node left, Node right) {
+        OperatorKey key = new OperatorKey(value, left, right);
+        Node node = nodes.get(key);
+        if(node == null) {
+            node = new Operator(value, left, right);
+            nodes.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Gives the shared version of a tree (such as one from Parser), made from this factory's
+     * nodes. The tree passed in isn't changed.
+     */
+    public Node intern(Node root) {
+        ArrayList<Node> results = new ArrayList<>();
+        for(Node node : Node.postOrder(root)) {
+            if(node.isOperator()) {
+                Node right = results.remove(results.size() - 1);
+                Node left = results.remove(results.size() - 1);
+                results.add(operator(node.value(), left, right));
+            } else if(node.isVariable()) {
+                results.add(variable((char) node.value()));
+            } else {
+                results.add(number(((Number) node).rational()));
+            }
+        }
+        return results.get(0);
+    }
+
+    /**
+     * Same as simplifyAnswer(), but each distinct subtree is only worked out once, no matter how
+     * many times it appears or how many times simplify() is called. Uses a stack of subtrees
+     * still to do instead of recursing, so deep trees are fine. Trees with x in them aren't
+     * remembered, and are simply worked out with simplifyAnswer().
+     * @param root a tree made by this factory
+     */
+    public Node simplify(Node root) {
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(root);
+
+        while(!stack.isEmpty()) {
+            Node node = stack.get(stack.size() - 1);
+            if(answers.containsKey(node)) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            if(node.isVariable()) {
+                //Only numbers are remembered. A tree with x is worked out with polynomials instead
+                return root.simplifyAnswer();
+            }
+            if(!node.isOperator()) {
+                answers.put(node, node);
+                continue;
+            }
+
+            //The left side first, and the right side only if the left side has no error
+            Node leftAnswer = answers.get(node.left);
+            if(leftAnswer == null) {
+                stack.add(node.left);
+                continue;
+            }
+            if(leftAnswer.hasErrorMessage) {
+                answers.put(node, leftAnswer);
+                continue;
+            }
+            Node rightAnswer = answers.get(node.right);
+            if(rightAnswer == null) {
+                stack.add(node.right);
+                continue;
+            }
+            answers.put(node, rightAnswer.hasErrorMessage ? rightAnswer : ((Operator) node).combine(leftAnswer, rightAnswer, null));
+        }
+
+        return answers.get(root);
+    }
+
+    /* How many distinct subtrees the factory has made */
+    public int size() {
+        return nodes.size();
+    }
+
+
+    /* Identifies an operator by its value and the identity of its (already shared) children */
+    private static class OperatorKey {
+        private final int value;
+        private final Node left;
+        private final Node right;
+
+        OperatorKey(int value, Node left, Node right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        public boolean equals(Object other) {
+            if(!(other instanceof OperatorKey)) {
+                return false;
+            }
+            OperatorKey that = (OperatorKey) other;
+            return value == that.value && left == that.left && right == that.right;
+        }
+
+        public int hashCode() {
+            return (value * 31 + System.identityHashCode(left)) * 31 + System.identityHashCode(right);
+        }
+    }
+}
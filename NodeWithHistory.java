@@ -1,11 +1,23 @@
 import java.util.ArrayList;
 
+/**
+ * The result of simplify(): the simplified Node together with the History of how it got there.
+ */
 public class NodeWithHistory {
     public Node node;
-    public ArrayList<String> values;
+    public History history;
+    private ArrayList<String> values;
 
-    public NodeWithHistory() {
-        this.node = new Node();
-        this.values = new ArrayList<>();
+    public NodeWithHistory(Node node, History history) {
+        this.node = node;
+        this.history = history;
     }
-}
\ No newline at end of file
+
+    /** The text of each step of the simplification. This is only built the first time it's asked for */
+    public ArrayList<String> values() {
+        if(values == null) {
+            values = history.values();
+        }
+        return values;
+    }
+}
@@ -1,14 +1,40 @@
-import java.util.ArrayList;
+import java.math.BigInteger;
 
 /**
 * This class represents a plain integer number on the expression tree. In practice, it is
 * always a leaf on the tree. The class overrides Node by giving accurate identifier functions
 * and through its simplify() method.
+*
+* Most numbers fit in a long, which is how they are stored. Only numbers too big for a long
+* fall back to a BigInteger. The value field inherited from Node only holds the number if it
+* fits in an int, so use longValue() or rational() to read it.
 */
 public class Number extends Node {
 
+    private long number;
+    private BigInteger bigNumber; //only used if the number doesn't fit in a long
+
     public Number(int value) {
-        this.value = value;
+        this((long) value);
+    }
+
+    public Number(long number) {
+        this.number = number;
+        this.value = toValue(number);
+    }
+
+    public Number(BigInteger number) {
+        if(number.bitLength() < 64) {
+            this.number = number.longValue();
+            this.value = toValue(this.number);
+        } else {
+            this.bigNumber = number;
+        }
+    }
+
+    /* The number for the value field, or 0 if it doesn't fit in an int, so it is never a different number */
+    private static int toValue(long number) {
+        return (number == (int) number) ? (int) number : 0;
     }
 
     public boolean isOperator() {
@@ -18,25 +44,62 @@ public class Number extends Node {
         return false;
     }
 
+    /* If the number is too big for a long */
+    public boolean isBig() {
+        return bigNumber != null;
+    }
+
+    /* The number, if it fits in a long (see isBig()) */
+    public long longValue() {
+        return number;
+    }
+
+    public BigInteger bigValue() {
+        if(bigNumber != null) {
+            return bigNumber;
+        }
+        return BigInteger.valueOf(number);
+    }
+
+    public Rational rational() {
+        if(bigNumber != null) {
+            return Rational.of(bigNumber);
+        }
+        return Rational.of(number);
+    }
+
+    /* A new Number with the opposite sign */
+    public Number negate() {
+        if(bigNumber != null || number == Long.MIN_VALUE) {
+            return new Number(bigValue().negate());
+        }
+        return new Number(-number);
+    }
+
 
     /** This is the key functionality of this class. Instead of trying to simplify more, because
      * it is a number, it knows it is a simple as possible, and so it simply returns a copy of 
      * itself.
      */ 
     public NodeWithHistory simplify() {
-        NodeWithHistory result = new NodeWithHistory();
-        result.node = new Number(value);
-        result.values = new ArrayList<String>();
-        result.values.add(String.valueOf(this.value));
-        return result;
+        Number copy = (bigNumber != null) ? new Number(bigNumber) : new Number(number);
+        return new NodeWithHistory(copy, new History(copy));
+    }
+
+    /* A number is already its own answer */
+    public Node simplifyAnswer() {
+        return this;
     }
 
     public String toString() {
-        return "" + value;    
+        if(bigNumber != null) {
+            return bigNumber.toString();
+        }
+        return "" + number;    
     }
 
     public String toStringIncludingChildren() {
         return this.toString();
     }
 
-}
\ No newline at end of file
+}
@@ -1,3 +1,4 @@
+import java.math.BigInteger;
 import java.util.ArrayList;
 
 /**
@@ -15,10 +16,10 @@ public class Operator extends Node {
 
     /* Construct an Operator with null children */
     public Operator(int value) {
-        this.value = value;
         if(value < 0 || value > 3) {
-            System.out.println("Warning! Invalid operator value: " + value);
+            throw new IllegalArgumentException("Invalid operator value: " + value);
         }
+        this.value = value;
     }
 
     public boolean isOperator() {
@@ -32,195 +33,309 @@ public class Operator extends Node {
 
     /** The main functionality of this subclass. Searches children to simplify it and them as
      * much as possible. If children are Numbers, then this function will simply compute the
-     * number answer. If children are other Operators, then recursively calls them to simplify()
+     * number answer. If children are other Operators, then they are simplified first.
+     *
+     * The tree is worked through in post-order with a stack of results instead of recursing,
+     * so even very deep trees can't overflow the call stack.
     */
     public NodeWithHistory simplify() {
 
-        NodeWithHistory result = new NodeWithHistory();
-
-        // System.out.println("Simplifying " + this.value + " " + this.left + " " + this.right); 
-
-        NodeWithHistory leftSimple =  left.simplify();
-        NodeWithHistory rightSimple = right.simplify();
-
-        if(leftSimple.node.hasErrorMessage) {
-            return leftSimple;
-        } else if(rightSimple.node.hasErrorMessage) {
-            return rightSimple;
-        }
-
-        // System.out.println("Left history" + leftSimple.values);
-        // System.out.println("Right history" + rightSimple.values);
+        long startTime = Metrics.ENABLED ? System.nanoTime() : 0;
+        ArrayList<Node> nodes = postOrder(this);
+        ArrayList<NodeWithHistory> results = new ArrayList<>();
+
+        for(Node node : nodes) {
+            if(!node.isOperator()) {
+                if(node.isVariable()) {
+                    //Numbers alone won't do, so start again with polynomials
+                    NodeWithHistory answer = simplifyWithVariables(nodes, true);
+                    if(Metrics.ENABLED) {
+                        Metrics.simplified(System.nanoTime() - startTime, nodes.size());
+                    }
+                    return answer;
+                }
+                results.add(node.simplify());
+                continue;
+            }
 
+            NodeWithHistory rightSimple = results.remove(results.size() - 1);
+            NodeWithHistory leftSimple = results.remove(results.size() - 1);
 
-        for (String leftVal : leftSimple.values) {
-            result.values.add("(" + leftVal + this.toString() + this.right.toStringIncludingChildren() + ")");
+            if(leftSimple.node.hasErrorMessage) {
+                results.add(leftSimple);
+            } else if(rightSimple.node.hasErrorMessage) {
+                results.add(rightSimple);
+            } else {
+                History history = new History(node, leftSimple.history, rightSimple.history);
+                Node answer = ((Operator) node).combine(leftSimple.node, rightSimple.node, history);
+                results.add(new NodeWithHistory(answer, history));
+            }
         }
-        String lastLeftVal = leftSimple.values.get(leftSimple.values.size() - 1);
 
-        rightSimple.values.remove(0);
-        for (String rightVal : rightSimple.values) {
-            result.values.add("(" + lastLeftVal + this.toString() + rightVal + ")");
+        if(Metrics.ENABLED) {
+            Metrics.simplified(System.nanoTime() - startTime, nodes.size());
         }
+        return results.get(0);
+    }
 
-        if( !leftSimple.node.isOperator() && !leftSimple.node.isVariable()
-            && !rightSimple.node.isOperator() && !rightSimple.node.isVariable()) {
-
-            int leftVal = leftSimple.node.value();
-            int rightVal = rightSimple.node.value();
-
-            switch(value) {
-                case 0: {
-                    result.node = new Number(leftVal + rightVal);
-                    result.values.add(String.valueOf(result.node.value));
-                } break;
-                case 1: {
-                    result.node = new Number(leftVal - rightVal);
-                    result.values.add(String.valueOf(result.node.value));
-                } break;
-                case 2: {
-                    result.node = new Number(leftVal * rightVal);
-                    result.values.add(String.valueOf(result.node.value));
-                } break;
-                case 3: {
-                    if(rightVal == 0) {
-                        //Divide by zero
-                        result.node = ErrorNode("Cannot divide "+leftSimple.node.value+" by 0");
+    /**
+     * Same as simplify(), but only works out the answer. No history is recorded at all, so this
+     * is the one to use when nobody is going to look at the steps.
+     *
+     * Like simplify(), this doesn't recurse. Operators whose left side is still being worked
+     * out wait on a stack, and once the left side has an error the right side is skipped.
+     *
+     * A long chain of + and - is flattened into a Sum (and a long chain of * and / into a
+     * Product), which waits on the same stack while its terms are worked out one by one, and
+     * adds each one onto a running total instead of reducing a fraction at every operator.
+     */
+    public Node simplifyAnswer() {
+        long startTime = Metrics.ENABLED ? System.nanoTime() : 0;
+        int nodes = 0;
+
+        //Operators waiting for a child, and the answer of their left child once it is known. For
+        //a chain flattened into a Sum or Product, the Operator at its top and the running total
+        ArrayList<Node> waiting = new ArrayList<>();
+        ArrayList<Node> leftAnswers = new ArrayList<>();
+        ArrayList<Accumulator> totals = new ArrayList<>();
+
+        Node node = this;
+        while(true) {
+            //Go down the left side as far as possible
+            while(node.isOperator()) {
+                nodes++;
+                Accumulator total = startChain(node, waiting);
+                if(total != null) {
+                    waiting.add(node);
+                    leftAnswers.add(null);
+                    totals.add(total);
+                    node = total.nextTerm();
+                } else {
+                    waiting.add(node);
+                    leftAnswers.add(null);
+                    totals.add(null);
+                    node = node.left;
+                }
+            }
+            if(node.isVariable()) {
+                ArrayList<Node> allNodes = postOrder(this);
+                Node answer = simplifyWithVariables(allNodes, false).node;
+                if(Metrics.ENABLED) {
+                    Metrics.simplified(System.nanoTime() - startTime, allNodes.size());
+                }
+                return answer;
+            }
+            Node answer = node.simplifyAnswer();
+            nodes++;
+
+            //Go back up until reaching something which still has children to do
+            while(true) {
+                int top = waiting.size() - 1;
+                if(top < 0) {
+                    if(Metrics.ENABLED) {
+                        Metrics.simplified(System.nanoTime() - startTime, nodes);
                     }
-
-                    if(leftVal % rightVal == 0) {
-                        // System.out.println(leftVal + " fits in " + rightVal);
-                        result.node = new Number(leftVal / rightVal);
-                        result.values.add(String.valueOf(result.node.value));
-                        
-                    } else {
-                        // System.out.println(leftVal + " does not fit in " + rightVal);
-
-                        //Simplify the fraction and leave it as a fraction
-                        int[] frac = simplifyFraction(leftVal, rightVal);
-
-                        Node leftEvenSimpler = new Number(frac[0]);
-                        Node rightEvenSimpler = new Number(frac[1]);
-
-                        // System.out.println("Simplified fraction is " + leftSimple.node + " / " + rightSimple.node);
-
-                        result.node = new Operator(3, leftEvenSimpler, rightEvenSimpler);
-                        String lastResultValue = result.values.get(result.values.size() - 1);
-                        String possibleNewValue = "(" + frac[0] + this.toString() + frac[1] + ")";
-                        if( !possibleNewValue.equals(lastResultValue)) {
-                            result.values.add(possibleNewValue);
+                    return answer;
+                }
+                Node parent = waiting.get(top);
+                Node leftSimple = leftAnswers.get(top);
+                Accumulator total = totals.get(top);
+
+                if(total != null) {
+                    if(!answer.hasErrorMessage) {
+                        Node error = total.add(answer);
+                        Node next = total.nextTerm();
+                        if(error == null && next != null) {
+                            node = next;
+                            break;
                         }
+                        answer = (error != null) ? error : total.answer();
                     }
-                } break;
-                default: {
-                    throw new Error("Invalid operator type");
+                } else if(leftSimple == null && !answer.hasErrorMessage) {
+                    //The left side is done, so start on the right
+                    leftAnswers.set(top, answer);
+                    node = parent.right;
+                    break;
+                } else if(leftSimple != null && !answer.hasErrorMessage) {
+                    answer = ((Operator) parent).combine(leftSimple, answer, null);
                 }
-            }
-
-        } else if(!leftSimple.node.isOperator() && !rightSimple.node.isOperator()) {
-            //One or more variable children
-            result.node = new Operator(value, leftSimple.node, rightSimple.node);
-            throw new Error("Variables unimplemented!");
-            
-        } else if(
-            leftSimple.node.isVariable() || (leftSimple.node.isOperator() && (leftSimple.node.left.isVariable() || leftSimple.node.right.isVariable()))
-            || rightSimple.node.isVariable() || (rightSimple.node.isOperator() && (rightSimple.node.left.isVariable() || rightSimple.node.right.isVariable()))
-        ) {
-            result.node = new Operator(value, leftSimple.node, rightSimple.node);
-            throw new Error("Variables unimplemented");
-
-        } else {
-
-            int[] fracLeft = new int[2];
-            int[] fracRight = new int[2];
+                //Otherwise answer is an error, which is passed on up
 
-            if(leftSimple.node.isOperator()) {
-                fracLeft[0] = leftSimple.node.left.value();
-                fracLeft[1] = leftSimple.node.right.value();
-            } else {
-                fracLeft[0] = leftSimple.node.value(); //Assuming this is number!!
-                fracLeft[1] = 1;
+                waiting.remove(top);
+                leftAnswers.remove(top);
+                totals.remove(top);
             }
+        }
+    }
 
-            if(rightSimple.node.isOperator()) {
-                fracRight[0] = rightSimple.node.left.value();
-                fracRight[1] = rightSimple.node.right.value();
-            } else {
-                fracRight[0] = rightSimple.node.value(); //Assuming this is number!!
-                fracRight[1] = 1;
+    /**
+     * If node starts a long chain of + and - or of * and /, the running total of its Sum or
+     * Product. Otherwise null, and it is worked out as an Operator. A node which continues the
+     * chain of the Operator above it was already counted as part of that chain, so it is never
+     * counted again.
+     */
+    private static Accumulator startChain(Node node, ArrayList<Node> waiting) {
+        Node parent = waiting.isEmpty() ? null : waiting.get(waiting.size() - 1);
+        boolean parentIsOperator = parent != null && parent.isOperator();
+
+        if(Sum.isChain(node)) {
+            if(parentIsOperator && Sum.isChain(parent)) {
+                return null;
             }
+            return Sum.isLongChain(node) ? Sum.of(node) : null;
+        }
+        if(parentIsOperator && Product.isChain(parent) && parent.left == node) {
+            return null;
+        }
+        return Product.isLongChain(node) ? Product.of(node) : null;
+    }
 
+    /**
+     * Works out a tree with x in it. Each subtree becomes a PolynomialFraction, so expanding
+     * and collecting terms is arithmetic on arrays of coefficients instead of rewriting trees,
+     * and x can appear any number of times.
+     * @param nodes the tree in post-order
+     * @param recordHistory if the History of the steps should be kept. If not, the History in
+     *                      the result is null
+     */
+    private static NodeWithHistory simplifyWithVariables(ArrayList<Node> nodes, boolean recordHistory) {
+        ArrayList<PolynomialFraction> values = new ArrayList<>();
+        ArrayList<History> histories = new ArrayList<>();
+
+        for(Node node : nodes) {
+            if(!node.isOperator()) {
+                Polynomial leaf = node.isVariable() ? Polynomial.X : Polynomial.of(((Number) node).rational());
+                values.add(PolynomialFraction.of(leaf));
+                if(recordHistory) {
+                    histories.add(new History(node));
+                }
+                continue;
+            }
 
-            if(value == 0 || value==1) { //we're adding or subtracting fractions
-
-                int lcm = leastCommonMultiple(fracLeft[1], fracRight[1]);
-                int topLeft = fracLeft[0] * (lcm / fracLeft[1]);
-                int topRight = fracRight[0] * (lcm / fracRight[1]);
-
-                int top = (value==0) ? (topLeft + topRight) : (topLeft - topRight);
-                
-                Operator newOp = new Operator(3, new Number(top), new Number(lcm));
-                result.values.add("(" + top + newOp.toString() + lcm + ")");
-                NodeWithHistory newerOp = newOp.simplify();
+            PolynomialFraction right = values.remove(values.size() - 1);
+            PolynomialFraction left = values.remove(values.size() - 1);
+            History history = null;
+            if(recordHistory) {
+                History rightHistory = histories.remove(histories.size() - 1);
+                History leftHistory = histories.remove(histories.size() - 1);
+                history = new History(node, leftHistory, rightHistory);
+                histories.add(history);
+            }
 
-                result.node = newerOp.node;
-                if(result.node.isOperator()) {
-                    String lastResultValue = result.values.get(result.values.size() - 1);
-                    String possibleNewValue = "(" + result.node.left.toString() + result.node.toString() + result.node.right.toString() + ")";
-                    if( !possibleNewValue.equals(lastResultValue)) {
-                        result.values.add(possibleNewValue);
+            PolynomialFraction answer;
+            switch(node.value) {
+                case 0: answer = left.add(right); break;
+                case 1: answer = left.subtract(right); break;
+                case 2: answer = left.multiply(right); break;
+                default: {
+                    if(right.isZero()) {
+                        //The rest of the tree can't be worked out, so stop here
+                        if(Metrics.ENABLED) {
+                            Metrics.dividedByZero();
+                        }
+                        return new NodeWithHistory(ErrorNode("Cannot divide "+left+" by 0"), history);
                     }
-
-                } else {
-                    result.values.add(result.node.toString());
+                    answer = left.divide(right);
                 }
+            }
 
+            values.add(answer);
+            if(recordHistory) {
+                history.addExpression(answer);
+            }
+        }
 
-            } else if(value == 2) { //multiplication
+        return new NodeWithHistory(values.get(0).toNode(), recordHistory ? histories.get(0) : null);
+    }
 
-                int top = fracLeft[0] * fracRight[0];   
-                int bottom = fracLeft[1] * fracRight[1];
-                result.values.add("(" + top + this.toString() + bottom + ")");
+    /**
+     * Applies this operator to children which have already been simplified.
+     * @param leftSimple the simplified left child
+     * @param rightSimple the simplified right child
+     * @param history where to record the steps, or null to skip recording them
+     * @return the simplified Node
+     */
+    Node combine(Node leftSimple, Node rightSimple, History history) {
+
+        if(!leftSimple.isOperator() && !rightSimple.isOperator()
+            && (leftSimple.isVariable() || rightSimple.isVariable())) {
+            //One or more variable children
+            return ErrorNode("Variables unimplemented!");
 
+        } else if(
+            leftSimple.isVariable() || (leftSimple.isOperator() && (leftSimple.left.isVariable() || leftSimple.right.isVariable()))
+            || rightSimple.isVariable() || (rightSimple.isOperator() && (rightSimple.left.isVariable() || rightSimple.right.isVariable()))
+        ) {
+            return ErrorNode("Variables unimplemented!");
+        }
 
-                int[] frac = simplifyFraction(top, bottom);
+        Rational leftVal = Rational.of(leftSimple);
+        Rational rightVal = Rational.of(rightSimple);
+
+        Rational answer;
+        switch(value) {
+            case 0: answer = leftVal.add(rightVal); break;
+            case 1: answer = leftVal.subtract(rightVal); break;
+            case 2: answer = leftVal.multiply(rightVal); break;
+            case 3: {
+                if(rightVal.isZero()) {
+                    //Divide by zero
+                    if(Metrics.ENABLED) {
+                        Metrics.dividedByZero();
+                    }
+                    return ErrorNode("Cannot divide "+leftVal+" by 0");
+                }
+                answer = leftVal.divide(rightVal);
+            } break;
+            default: {
+                throw new Error("Invalid operator type");
+            }
+        }
 
-                result.node = new Operator(3, new Number(frac[0]), new Number(frac[1]));
+        if(history != null) {
+            recordSteps(leftVal, rightVal, answer, history);
+        }
 
-                String lastResultValue = result.values.get(result.values.size() - 1);
-                String possibleNewValue = "(" + result.node.left.toString() + result.node.toString() + result.node.right.toString() + ")";
-                if( !possibleNewValue.equals(lastResultValue)) {
-                    result.values.add(possibleNewValue);
-                }
+        return answer.toNode();
+    }
 
+    /**
+     * Records the steps a person would write down to get from the two simplified children to
+     * the answer. With two whole numbers that is just the answer. With fractions, the unreduced
+     * fraction is shown first: over the common denominator for + and -, or as the product of the
+     * tops and bottoms for * and /.
+     */
+    private void recordSteps(Rational leftVal, Rational rightVal, Rational answer, History history) {
 
-            } else if(value == 3) { //division
+        if(!leftVal.isInteger() || !rightVal.isInteger()) {
+            //Show the unreduced fraction. BigIntegers are fine here, since nobody asks for the
+            //history when speed matters
+            BigInteger leftTop = leftVal.numerator();
+            BigInteger leftBottom = leftVal.denominator();
+            BigInteger rightTop = rightVal.numerator();
+            BigInteger rightBottom = rightVal.denominator();
 
-                int top = fracLeft[0] * fracRight[1];
-                int bottom = fracLeft[1] * fracRight[0];
-                result.values.add("(" + top + this.toString() + bottom + ")");
+            if(value == 0 || value == 1) { //we're adding or subtracting fractions
 
+                BigInteger gcd = leftBottom.gcd(rightBottom);
+                BigInteger lcm = leftBottom.divide(gcd).multiply(rightBottom);
+                BigInteger topLeft = leftTop.multiply(lcm.divide(leftBottom));
+                BigInteger topRight = rightTop.multiply(lcm.divide(rightBottom));
 
-                // System.out.println("Top is " + top + " Bottom is " + bottom);
+                BigInteger top = (value==0) ? topLeft.add(topRight) : topLeft.subtract(topRight);
+                history.addFraction(top, '/', lcm);
 
-                int[] frac = simplifyFraction(top, bottom);
+            } else if(value == 2) { //multiplication
 
-                // System.out.println("After simplification fraction " + frac);
+                history.addFraction(leftTop.multiply(rightTop), '*', leftBottom.multiply(rightBottom));
 
-                result.node = new Operator(3, new Number(frac[0]), new Number(frac[1]));
-                String lastResultValue = result.values.get(result.values.size() - 1);
-                String possibleNewValue = "(" + result.node.left.toString() + result.node.toString() + result.node.right.toString() + ")";
-                if( !possibleNewValue.equals(lastResultValue)) {
-                    result.values.add(possibleNewValue);
-                }
+            } else { //division
 
-            } else {
-                throw new Error("Invalid operator");
+                history.addFraction(leftTop.multiply(rightBottom), '/', leftBottom.multiply(rightTop));
             }
         }
 
-        // System.out.println("value history is " + result.values);
-        return result;
+        history.addAnswer(answer);
     }
 
 
@@ -241,81 +356,26 @@ public class Operator extends Node {
         return opStr;
     }
 
+    /* The expression written out in order. Uses a stack instead of recursion */
     public String toStringIncludingChildren() {
-        return this.left.toStringIncludingChildren() + this.toString() + this.right.toStringIncludingChildren();
-    }
-
-
-    // Utility functions for doing mathy things like simplifing fractions
-    
-    /* Generates list of prime factors for specified num */
-    public ArrayList<Integer> factors(int num) {
-        ArrayList<Integer> factors = new ArrayList<Integer>();
-        factors.add(1); //gets removed at the end
-
-        boolean isNegative = false;
-        if(num < 0) {
-            num = -1 * num;
-            isNegative = true;
-        }
-
-        int i=2;
-        while(i * factors.get(factors.size()-1) < num) {
-            // System.out.println("Num: "+num +" i: "+i);
-            if(num % i == 0) {
-                factors.add(i);
-                num = num / i;
-                
-            } else {
-                i++;
-            }
-        }
-        factors.add(num);
-
-        factors.remove(0);
-        if(isNegative) {
-            factors.add(0, -1);
-        }
-        return factors;
-    }
-
-    /* Given a numerator and a denominator, simplifies them and returns as a array of 2 elements */
-    private int[] simplifyFraction(int leftNum, int rightNum) {
-        ArrayList<Integer> leftFactors = factors(leftNum);
-        ArrayList<Integer> rightFactors = factors(rightNum);
-
-        int i=0;
-        int j=0;
-        while(i < leftFactors.size()) {
-            if(leftFactors.get(i) == rightFactors.get(j)) {
-                leftNum /= leftFactors.get(i);
-                rightNum /= leftFactors.get(i); //common divisor
-                leftFactors.remove(i);
-                rightFactors.remove(j);
-            } else {
-                j++;
+        StringBuilder text = new StringBuilder();
+        ArrayList<Node> waiting = new ArrayList<>();
+
+        Node node = this;
+        while(true) {
+            while(node.isOperator()) {
+                waiting.add(node);
+                node = node.left;
             }
+            text.append(node.toStringIncludingChildren());
 
-            if(j > rightFactors.size()-1) {
-                i++;
-                j=0;
+            if(waiting.isEmpty()) {
+                return text.toString();
             }
+            Node operator = waiting.remove(waiting.size() - 1);
+            text.append(operator.toString());
+            node = operator.right;
         }
-
-        //Make the negative on the top
-        if(rightNum < 0) {
-            leftNum *= -1;
-            rightNum *= -1;
-        }
-
-        return new int[] {leftNum, rightNum};
     }
 
-    /** Find the least common multiple between two numbers */
-    public int leastCommonMultiple(int a, int b) {
-        int[] frac = simplifyFraction(a,b);
-        return a * frac[1]; //which should be the same as b * frac[0];
-    }
-
-
 }
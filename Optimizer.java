@@ -0,0 +1,257 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Rewrites a tree into a smaller one with the same value, for expressions which are evaluated
+ * many times (such as by HotExpression or BatchEvaluator). In one pass through the tree it:
+ *
+ * - works out every part without x, so 2*3+x becomes 6+x
+ * - drops +0, -0, *1 and /1, and turns 0*(anything) into 0
+ * - flattens chains of + and - (and chains of * and /) into one list of terms each, so that
+ *   all the numbers in a chain are added (or multiplied) together into one, wherever they
+ *   were. 1+x+2-3 becomes x, and 2*x*3/4 becomes 3/2*x.
+ *
+ * The answer is always the same as the original tree's, for every value of x. That includes
+ * errors: a part which might divide by zero, like 1/x, is never dropped by a *0, and parts which
+ * might divide by zero are kept in the same order, so the same error is found first.
+ *
+ * The tree given isn't changed. The new tree may share leaves with it.
+ */
+public class Optimizer {
+
+    //Kinds of Result
+    private static final int CONSTANT = 0;
+    private static final int SUM = 1;
+    private static final int PRODUCT = 2;
+    private static final int OTHER = 3; //any other tree, such as x or something divided by x
+
+    /**
+     * Optimizes a tree made of Numbers, Variables and Operators (such as one from Parser).
+     * Works in post-order with a stack instead of recursing, so deep trees are fine.
+     */
+    public static Node optimize(Node root) {
+        ArrayList<Result> results = new ArrayList<>();
+
+        for(Node node : Node.postOrder(root)) {
+            if(node.isVariable()) {
+                results.add(Result.other(node, true));
+                continue;
+            } else if(!node.isOperator()) {
+                results.add(Result.constant(((Number) node).rational()));
+                continue;
+            }
+
+            Result right = results.remove(results.size() - 1);
+            Result left = results.remove(results.size() - 1);
+            switch(node.value) {
+                case 0: results.add(add(left, right, false)); break;
+                case 1: results.add(add(left, right, true)); break;
+                case 2: results.add(multiply(left, right)); break;
+                default: results.add(divide(left, right));
+            }
+        }
+
+        return results.get(0).toNode();
+    }
+
+    private static Result add(Result left, Result right, boolean subtract) {
+        if(left.kind == CONSTANT && right.kind == CONSTANT) {
+            return Result.constant(subtract ? left.constant.subtract(right.constant) : left.constant.add(right.constant));
+        }
+        Result sum = left.asSum();
+        Result other = right.asSum();
+        if(subtract) {
+            other.constant = other.constant.negate();
+            other.negated = !other.negated;
+        }
+        sum.constant = sum.constant.add(other.constant);
+        sum.safe &= other.safe;
+
+        //Move the terms of the shorter list into the longer one, so long chains stay fast
+        if(sum.terms.size() >= other.terms.size()) {
+            for(Term term : other.terms) {
+                sum.terms.addLast(new Term(term.node, term.negative ^ other.negated ^ sum.negated));
+            }
+            return sum;
+        }
+        Iterator<Term> backwards = sum.terms.descendingIterator();
+        while(backwards.hasNext()) {
+            Term term = backwards.next();
+            other.terms.addFirst(new Term(term.node, term.negative ^ sum.negated ^ other.negated));
+        }
+        other.constant = sum.constant;
+        other.safe = sum.safe;
+        return other;
+    }
+
+    private static Result multiply(Result left, Result right) {
+        if(left.kind == CONSTANT && right.kind == CONSTANT) {
+            return Result.constant(left.constant.multiply(right.constant));
+        }
+        Result product = left.asProduct();
+        Result other = right.asProduct();
+        product.constant = product.constant.multiply(other.constant);
+        product.safe &= other.safe;
+        if(product.constant.isZero() && product.safe) {
+            return Result.constant(Rational.ZERO);
+        }
+
+        if(product.terms.size() >= other.terms.size()) {
+            product.terms.addAll(other.terms);
+            return product;
+        }
+        Iterator<Term> backwards = product.terms.descendingIterator();
+        while(backwards.hasNext()) {
+            other.terms.addFirst(backwards.next());
+        }
+        other.constant = product.constant;
+        other.safe = product.safe;
+        return other;
+    }
+
+    private static Result divide(Result left, Result right) {
+        if(right.kind == CONSTANT && !right.constant.isZero()) {
+            if(left.kind == CONSTANT) {
+                return Result.constant(left.constant.divide(right.constant));
+            }
+            //Dividing by a number is multiplying by 1 over it
+            Result product = left.asProduct();
+            product.constant = product.constant.divide(right.constant);
+            return product;
+        }
+        //Could be dividing by zero, so it stays a division, and isn't safe to drop
+        return Result.other(new Operator(3, left.toNode(), right.toNode()), false);
+    }
+
+
+    /* One term of a sum, or one factor of a product */
+    private static class Term {
+        final Node node;
+        final boolean negative; //for a sum, if it is subtracted
+
+        Term(Node node, boolean negative) {
+            this.node = node;
+            this.negative = negative;
+        }
+    }
+
+    /**
+     * What part of the tree has been optimized into so far. A SUM or PRODUCT is kept as a flat
+     * list of terms until something else needs it as a tree.
+     */
+    private static class Result {
+        int kind;
+
+        //For CONSTANT the value. For SUM the number added on, and for PRODUCT the number
+        //multiplied by, which are both left out of terms
+        Rational constant;
+
+        ArrayDeque<Term> terms;
+        boolean negated; //for SUM, if every term's sign is flipped. Saves flipping them all
+
+        Node node; //for OTHER
+
+        //If working it out can't divide by zero, so it's fine to drop
+        boolean safe;
+
+        static Result constant(Rational value) {
+            Result result = new Result();
+            result.kind = CONSTANT;
+            result.constant = value;
+            result.safe = true;
+            return result;
+        }
+
+        static Result other(Node node, boolean safe) {
+            Result result = new Result();
+            result.kind = OTHER;
+            result.node = node;
+            result.safe = safe;
+            return result;
+        }
+
+        /* This as a SUM, which may be this same Result */
+        Result asSum() {
+            if(kind == SUM) {
+                return this;
+            }
+            Result sum = new Result();
+            sum.kind = SUM;
+            sum.terms = new ArrayDeque<>();
+            sum.safe = safe;
+            if(kind == CONSTANT) {
+                sum.constant = constant;
+            } else {
+                sum.constant = Rational.ZERO;
+                sum.terms.add(new Term(toNode(), false));
+            }
+            return sum;
+        }
+
+        /* This as a PRODUCT, which may be this same Result */
+        Result asProduct() {
+            if(kind == PRODUCT) {
+                return this;
+            }
+            Result product = new Result();
+            product.kind = PRODUCT;
+            product.terms = new ArrayDeque<>();
+            product.safe = safe;
+            if(kind == CONSTANT) {
+                product.constant = constant;
+            } else {
+                product.constant = Rational.ONE;
+                product.terms.add(new Term(toNode(), false));
+            }
+            return product;
+        }
+
+        /**
+         * Builds the tree. The terms are joined from the left in their order, and the number goes
+         * at the end of a sum (or the start, if the first term is subtracted) and at the start of
+         * a product.
+         */
+        Node toNode() {
+            switch(kind) {
+                case CONSTANT: return constant.toNode();
+                case OTHER: return node;
+                case PRODUCT: {
+                    Node tree = constant.equals(Rational.ONE) ? null : constant.toNode();
+                    for(Term term : terms) {
+                        tree = (tree == null) ? term.node : new Operator(2, tree, term.node);
+                    }
+                    return tree;
+                }
+                default: {
+                    if(terms.isEmpty()) {
+                        return constant.toNode();
+                    }
+                    Node tree = null;
+                    boolean constantUsed = constant.isZero();
+                    for(Term term : terms) {
+                        boolean negative = term.negative ^ negated;
+                        if(tree == null) {
+                            if(!negative) {
+                                tree = term.node;
+                                continue;
+                            } else if(!constantUsed) {
+                                tree = constant.toNode();
+                                constantUsed = true;
+                            } else {
+                                tree = new Operator(2, new Number(-1), term.node);
+                                continue;
+                            }
+                        }
+                        tree = new Operator(negative ? 1 : 0, tree, term.node);
+                    }
+                    if(!constantUsed) {
+                        tree = (constant.signum() < 0) ? new Operator(1, tree, constant.negate().toNode())
+                                                      : new Operator(0, tree, constant.toNode());
+                    }
+                    return tree;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Simplifies very large expression trees on several cores at once. The left and right children
+ * of an Operator don't depend on each other, so the left one is forked off to another thread of
+ * a ForkJoinPool while this thread works on the right one. Subtrees with no more than threshold
+ * nodes aren't worth splitting up, and are simplified the normal way on one thread.
+ *
+ * The answer (and the history) is exactly what simplify() and simplifyAnswer() give on the same
+ * tree. If both sides of an operator have an error, the error from the left side is the one
+ * that is returned, just like the sequential code.
+ *
+ * The tree must not be changed while it is being simplified.
+ */
+public class ParallelSimplifier {
+
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /* Uses the common pool and the default threshold */
+    public ParallelSimplifier() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param pool the pool to run the tasks in
+     * @param threshold subtrees with at most this many nodes are simplified on one thread
+     */
+    public ParallelSimplifier(ForkJoinPool pool, int threshold) {
+        if(threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be at least 1");
+        }
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /* The same as root.simplifyAnswer() */
+    public Node simplifyAnswer(Node root) {
+        Set<Node> large = largeSubtrees(root);
+        if(large == null) {
+            return root.simplifyAnswer();
+        }
+        return pool.invoke(new AnswerTask(root, large));
+    }
+
+    /* The same as root.simplify() */
+    public NodeWithHistory simplify(Node root) {
+        Set<Node> large = largeSubtrees(root);
+        if(large == null) {
+            return root.simplify();
+        }
+        return pool.invoke(new HistoryTask(root, large));
+    }
+
+    /**
+     * Finds every subtree with more than threshold nodes, counting them all in one pass
+     * through the tree in post-order.
+     * @return the large subtrees, or null if the tree has x in it. Those trees are worked out
+     *         with polynomials on one thread, since the pieces can't be put back together with
+     *         Operator.combine()
+     */
+    private Set<Node> largeSubtrees(Node root) {
+        Set<Node> large = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[] sizes = new int[16]; //sizes of the subtrees waiting for their parent
+        int count = 0;
+
+        for(Node node : Node.postOrder(root)) {
+            if(node.isVariable()) {
+                return null;
+            }
+            int size = 1;
+            if(node.isOperator()) {
+                size += sizes[--count] + sizes[--count];
+            }
+            if(size > threshold) {
+                large.add(node);
+            }
+            if(count == sizes.length) {
+                sizes = Arrays.copyOf(sizes, count * 2);
+            }
+            sizes[count++] = size;
+        }
+        return large;
+    }
+
+
+    /**
+     * Simplifies one subtree. Splitting only pays off at an operator where both sides are
+     * large, so the task first walks down past operators with only one large side (like the
+     * long left side of 1+1+1+...+1), then splits, then works back up the way it came. That
+     * way the tasks are never nested much deeper than the number of splits.
+     */
+    private abstract class SimplifyTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final Set<Node> large;
+
+        SimplifyTask(Node node, Set<Node> large) {
+            this.node = node;
+            this.large = large;
+        }
+
+        /* Simplifies a subtree the normal way, on this thread */
+        abstract T sequential(Node node);
+
+        /* Puts together the simplified children of an operator */
+        abstract T combine(Node operator, T leftSimple, T rightSimple);
+
+        abstract SimplifyTask<T> task(Node node, Set<Node> large);
+
+        protected T compute() {
+            ArrayList<Node> path = new ArrayList<>();
+            Node current = node;
+            while(large.contains(current) && large.contains(current.left) != large.contains(current.right)) {
+                path.add(current);
+                current = large.contains(current.left) ? current.left : current.right;
+            }
+
+            T result;
+            if(large.contains(current) && large.contains(current.left)) {
+                SimplifyTask<T> leftTask = task(current.left, large);
+                leftTask.fork();
+                T rightSimple = task(current.right, large).compute();
+                result = combine(current, leftTask.join(), rightSimple);
+            } else {
+                result = sequential(current);
+            }
+
+            for(int i = path.size() - 1; i >= 0; i--) {
+                Node parent = path.get(i);
+                if(parent.left == current) {
+                    result = combine(parent, result, sequential(parent.right));
+                } else {
+                    result = combine(parent, sequential(parent.left), result);
+                }
+                current = parent;
+            }
+            return result;
+        }
+    }
+
+    private class AnswerTask extends SimplifyTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        AnswerTask(Node node, Set<Node> large) {
+            super(node, large);
+        }
+
+        Node sequential(Node node) {
+            return node.simplifyAnswer();
+        }
+
+        Node combine(Node operator, Node leftSimple, Node rightSimple) {
+            if(leftSimple.hasErrorMessage) {
+                return leftSimple;
+            } else if(rightSimple.hasErrorMessage) {
+                return rightSimple;
+            }
+            return ((Operator) operator).combine(leftSimple, rightSimple, null);
+        }
+
+        SimplifyTask<Node> task(Node node, Set<Node> large) {
+            return new AnswerTask(node, large);
+        }
+    }
+
+    private class HistoryTask extends SimplifyTask<NodeWithHistory> {
+        private static final long serialVersionUID = 1L;
+
+        HistoryTask(Node node, Set<Node> large) {
+            super(node, large);
+        }
+
+        NodeWithHistory sequential(Node node) {
+            return node.simplify();
+        }
+
+        NodeWithHistory combine(Node operator, NodeWithHistory leftSimple, NodeWithHistory rightSimple) {
+            if(leftSimple.node.hasErrorMessage) {
+                return leftSimple;
+            } else if(rightSimple.node.hasErrorMessage) {
+                return rightSimple;
+            }
+
+            //Each History only belongs to its own subtree, so building them on different
+            //threads is fine
+            History history = new History(operator, leftSimple.history, rightSimple.history);
+            return new NodeWithHistory(((Operator) operator).combine(leftSimple.node, rightSimple.node, history), history);
+        }
+
+        SimplifyTask<NodeWithHistory> task(Node node, Set<Node> large) {
+            return new HistoryTask(node, large);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the trees of recently parsed expressions, so that the same text isn't parsed over
+ * and over. The text is normalized first by dropping whitespace, so "1 + 2" and "1+2" share an
+ * entry. That never changes the tree: the Tokenizer skips whitespace everywhere, even between
+ * digits, so "12 34" is the same 1234 as "1234". Once the cache is full, the least recently
+ * used entry is evicted.
+ *
+ * The cache can be used from many threads. The trees it hands out are shared between every
+ * caller asking for the same text, so they must not be changed. simplify(), simplifyAnswer()
+ * and Program.compile() only read the tree, so they are safe to use on them.
+ */
+public class ParseCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Parser parser;
+    private final LinkedHashMap<String, ParseResult> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ParseCache() {
+        this(new Parser(), DEFAULT_CAPACITY);
+    }
+
+    public ParseCache(int capacity) {
+        this(new Parser(), capacity);
+    }
+
+    public ParseCache(Parser parser, int capacity) {
+        this.parser = parser;
+
+        //An access-ordered LinkedHashMap keeps the least recently used entry first
+        this.entries = new LinkedHashMap<String, ParseResult>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, ParseResult> eldest) {
+                if(size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gives the tree for the text, parsing it only if it isn't cached already
+     * @return the shared root of the tree, or null if the expression is invalid
+     */
+    public Node parse(String input) {
+        return parseResult(input).node;
+    }
+
+    /**
+     * Same as parse(), but an invalid expression gives its error instead of null. Text which
+     * doesn't parse isn't cached, so the error's position is always in input itself, not in
+     * some other text which only differs in whitespace.
+     */
+    public ParseResult parseResult(String input) {
+        String key = normalize(input);
+
+        ParseResult result;
+        synchronized(entries) {
+            result = entries.get(key);
+        }
+        if(result != null) {
+            hits.increment();
+            return result;
+        }
+
+        //Parse outside the lock. If two threads parse the same text, the trees are the same
+        misses.increment();
+        result = parser.parseResult(input);
+        if(result.isValid()) {
+            synchronized(entries) {
+                entries.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /* The text without any whitespace. Text without whitespace is returned as it is */
+    static String normalize(String input) {
+        int i = 0;
+        while(i < input.length() && !isWhitespace(input.charAt(i))) {
+            i++;
+        }
+        if(i == input.length()) {
+            return input;
+        }
+
+        StringBuilder normalized = new StringBuilder(input.length());
+        normalized.append(input, 0, i);
+        for(; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if(!isWhitespace(c)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /* The same whitespace Tokenizer skips */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized(entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * The outcome of parsing some text: either the root of the tree, or an error code with the
+ * place in the text where the problem was found. Nothing is printed and nothing is thrown, so
+ * callers decide what to do with a bad expression, and rejecting one costs about the same as
+ * accepting a good one.
+ */
+public class ParseResult {
+
+    /* Error codes */
+    public static final int NONE = 0;
+    public static final int EMPTY = 1; //no tokens at all
+    public static final int INVALID_CHARACTER = 2; //a character which isn't part of any token
+    public static final int MISMATCHED_PARENTHESES = 3; //a ')' with no '(', or a '(' never closed
+    public static final int ENDS_WITH_OPERATOR = 4;
+    public static final int INVALID_EXPRESSION = 5; //such as two operators in a row
+
+    //The root of the tree, or null if there was an error
+    public final Node node;
+
+    public final int error;
+
+    //Index in the text where the error was found, or -1 if there was no error
+    public final int position;
+
+    private final char character; //the character for INVALID_CHARACTER
+
+    private ParseResult(Node node, int error, int position, char character) {
+        this.node = node;
+        this.error = error;
+        this.position = position;
+        this.character = character;
+    }
+
+    public static ParseResult of(Node root) {
+        return new ParseResult(root, NONE, -1, ' ');
+    }
+
+    public static ParseResult error(int error, int position) {
+        return new ParseResult(null, error, position, ' ');
+    }
+
+    public static ParseResult invalidCharacter(char character, int position) {
+        return new ParseResult(null, INVALID_CHARACTER, position, character);
+    }
+
+    public boolean isValid() {
+        return error == NONE;
+    }
+
+    /* The same message the parser used to print, or "" if there was no error */
+    public String message() {
+        switch(error) {
+            case EMPTY: return "Expression is empty";
+            case INVALID_CHARACTER: return "Invalid character: '" + character + "'";
+            case MISMATCHED_PARENTHESES: return "Mismatched parentheses";
+            case ENDS_WITH_OPERATOR: return "Invalid expression. Ended with an operator.";
+            case INVALID_EXPRESSION: return "Invalid expression";
+            default: return "";
+        }
+    }
+
+    public String toString() {
+        return isValid() ? node.toStringIncludingChildren() : message() + " at " + position;
+    }
+}
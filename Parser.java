@@ -1,4 +1,6 @@
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class takes in a math expression and converts into a tree of Nodes.
@@ -9,46 +11,29 @@ public class Parser {
     String operatorsList ="+-*/";
     String variablesList = "x";
 
+    /* One Tokenizer for each thread, which parseResult() resets onto each new text */
+    private final ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(() -> new Tokenizer(""));
+
 
     /**
      * This method takens in math text and parses it into a tree of Nodes
      * @param input the String, which should only contain numbers, arithmetic,
                     possibly an 'x', and whitespace
         @return root of tree. Each Node will be of the correct subclass depending on what
-                they parse out to be.
+                they parse out to be. null if the text isn't a valid expression. This
+                doesn't say why, and parseResult() is a different parser, which doesn't
+                always accept the same text.
      */
     public Node parse(String input) {
 
-        input = input.replaceAll(" ", ""); //Remove all whitespace
-
-        if(input.length() == 0) {
-            System.out.println("Expression is empty");
-            return null;
-        }    
+        long startTime = Metrics.ENABLED ? System.nanoTime() : 0;
 
-        int parenCount = 0;
-        
-        for(int i=0; i<input.length(); i++) {
-            char c = input.charAt(i);
-            if(digitsList.indexOf(c) == -1 && operatorsList.indexOf(c) == -1 && variablesList.indexOf(c) == -1 && c != '(' && c != ')') {
-                System.out.println("Invalid character: '"+c+"'");
-                return null;
-            }
+        input = input.replaceAll(" ", ""); //Remove all whitespace
 
-            if(c=='(') {
-                parenCount++;
-            } else if(c==')') {
-                parenCount--;
+        if(!isValidText(input)) {
+            if(Metrics.ENABLED) {
+                Metrics.parsed(System.nanoTime() - startTime, 0, false);
             }
-        }
-
-        if(parenCount != 0) {
-            System.out.println("Mismatched parentheses");
-            return null;
-        }
-
-        if(operatorsList.indexOf(input.charAt(input.length()-1)) != -1) {
-            System.out.println("Invalid expression. Ended with an operator.");
             return null;
         }
 
@@ -65,11 +50,7 @@ public class Parser {
             } else {
                 if(currentNum != "") {
 
-                    try {
-                        tokens.add(new Number(Integer.valueOf(currentNum)));
-                    } catch(NumberFormatException e) {
-                        System.out.println("Those numbers were too big for the computer to handle.");
-                    }
+                    tokens.add(new Number(new BigInteger(currentNum)));
                 }
                 currentNum = "";
             }
@@ -92,9 +73,10 @@ public class Parser {
         }
 
         if(currentNum != "") {
-            tokens.add(new Number(Integer.valueOf(currentNum)));
+            tokens.add(new Number(new BigInteger(currentNum)));
         }
 
+        int tokenCount = tokens.size();
 
         //Attach hanging negatives to numbers
         boolean operAfterNumberOrVar = true;
@@ -103,7 +85,7 @@ public class Parser {
             Node token = tokens.get(i);
             Node nextToken = tokens.get(i+1);
 
-            if(token.value == 1) {
+            if(token.isOperator() && token.value == 1) {
                 if( !nextToken.isOperator() && !nextToken.isParenthesis()) {
 
                     if(i == 0
@@ -123,7 +105,7 @@ public class Parser {
 
                         } else {
                             //Next token is number
-                            tokens.set(i+1, new Number(-1 * nextToken.value));
+                            tokens.set(i+1, ((Number) nextToken).negate());
                             tokens.remove(i);
                             i -= 1;
                         }
@@ -156,11 +138,14 @@ public class Parser {
 
 
 
-        //Deal with parenthesis recursively
-        parseTokens(tokens, 0, tokens.size(), "");
+        //Deal with parenthesis, innermost first
+        parseTokens(tokens, 0, tokens.size());
+
+        if(Metrics.ENABLED) {
+            Metrics.parsed(System.nanoTime() - startTime, tokenCount, tokens.size() == 1);
+        }
 
         if(tokens.size() != 1) {
-            System.out.println("Invalid expression");
             return null;
         } else {
             return tokens.get(0);
@@ -169,15 +154,287 @@ public class Parser {
     }
         
     /**
-     * This is a recursive function which deals with parentheses in the string. It calss itself * with only the text that is inside a certain set of parentheses, so in this way we "drill * down" to parse every symbol in the correct order. 
+     * Checks that the text is non-empty, only contains characters we understand, has matching
+     * parentheses and does not end with an operator.
+     * @param input the text with whitespace already removed
+     * @return whether the text can be tokenized
+     */
+    private boolean isValidText(String input) {
+
+        if(input.length() == 0) {
+            return false;
+        }    
+
+        int parenCount = 0;
+        
+        for(int i=0; i<input.length(); i++) {
+            char c = input.charAt(i);
+            if(digitsList.indexOf(c) == -1 && operatorsList.indexOf(c) == -1 && variablesList.indexOf(c) == -1 && c != '(' && c != ')') {
+                return false;
+            }
+
+            if(c=='(') {
+                parenCount++;
+            } else if(c==')') {
+                parenCount--;
+            }
+        }
+
+        if(parenCount != 0) {
+            return false;
+        }
+
+        if(operatorsList.indexOf(input.charAt(input.length()-1)) != -1) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Parses math text into the same tree of Nodes as parse(), but in a single left-to-right
+     * pass. Tokens are pulled one at a time from a Tokenizer, so the text is never copied and
+     * no token list is built. Hanging negatives and implied multiplication are handled as the
+     * tokens arrive, and the tree is built with the shunting-yard algorithm instead of sweeping
+     * the tokens once per operator. The work grows linearly with the length of the input.
+     * @param input the text, which should only contain numbers, arithmetic,
+                    possibly an 'x', and whitespace
+        @return root of tree, or null if the expression is invalid
+     */
+    public Node parseSinglePass(CharSequence input) {
+        return parseResult(input).node;
+    }
+
+    /**
+     * The same as parseSinglePass(), but when the expression is invalid the result tells what
+     * is wrong and where, instead of just being null.
+     * @param input the text, which should only contain numbers, arithmetic,
+                    possibly an 'x', and whitespace
+        @return the root of the tree, or an error code and the index in input where it was found
+     */
+    public ParseResult parseResult(CharSequence input) {
+        long startTime = Metrics.ENABLED ? System.nanoTime() : 0;
+        Tokenizer tokenizer = tokenizers.get();
+        tokenizer.reset(input);
+        TreeBuilder builder = new TreeBuilder();
+
+        boolean sawToken = false;
+        boolean pendingNegative = false; //a minus sign which may belong to the next operand
+        int error = ParseResult.NONE;
+
+        tokens:
+        while(true) {
+            int type = tokenizer.next();
+            if(type == Tokenizer.END) {
+                break;
+            }
+            sawToken = true;
+
+            boolean negative = false;
+            if(pendingNegative && type != Tokenizer.INVALID) {
+                pendingNegative = false;
+                if(type == Tokenizer.NUMBER || type == Tokenizer.VARIABLE) {
+                    negative = true;
+                } else {
+                    //A minus sign with no left operand and nothing to attach to
+                    error = ParseResult.INVALID_EXPRESSION;
+                    break tokens;
+                }
+            }
+
+            switch(type) {
+                case Tokenizer.NUMBER: {
+                    Number number;
+                    if(tokenizer.numberTooBig()) {
+                        //Too big for a long, so read the digits again as a BigInteger
+                        number = new Number(tokenizer.bigNumber());
+                    } else {
+                        number = new Number(tokenizer.number());
+                    }
+                    builder.operand(negative ? number.negate() : number);
+                } break;
+
+                case Tokenizer.VARIABLE: {
+                    if(negative) {
+                        //Same as parse(): -x becomes (-1*x)
+                        builder.open();
+                        builder.operand(new Number(-1));
+                        builder.operator(2);
+                        builder.operand(new Variable(tokenizer.character()));
+                        builder.close();
+                    } else {
+                        builder.operand(new Variable(tokenizer.character()));
+                    }
+                } break;
+
+                case Tokenizer.OPERATOR: {
+                    int op = tokenizer.operator();
+                    if(op == 1 && builder.expectingOperand()) {
+                        pendingNegative = true;
+                    } else if(builder.expectingOperand()) {
+                        error = ParseResult.INVALID_EXPRESSION;
+                        break tokens;
+                    } else {
+                        builder.operator(op);
+                    }
+                } break;
+
+                case Tokenizer.OPEN: {
+                    builder.open();
+                } break;
+
+                case Tokenizer.CLOSE: {
+                    if(builder.openParentheses() == 0) {
+                        error = ParseResult.MISMATCHED_PARENTHESES;
+                        break tokens;
+                    } else if(builder.expectingOperand()) {
+                        error = ParseResult.INVALID_EXPRESSION;
+                        break tokens;
+                    }
+                    builder.close();
+                } break;
+
+                default: {
+                    error = ParseResult.INVALID_CHARACTER;
+                    break tokens;
+                }
+            }
+        }
+
+        //Checks for the end of the text
+        if(error == ParseResult.NONE) {
+            if(!sawToken) {
+                error = ParseResult.EMPTY;
+            } else if(builder.openParentheses() != 0) {
+                error = ParseResult.MISMATCHED_PARENTHESES;
+            } else if(pendingNegative || builder.expectingOperand()) {
+                error = ParseResult.ENDS_WITH_OPERATOR;
+            }
+        }
+
+        ParseResult result;
+        if(error == ParseResult.NONE) {
+            result = ParseResult.of(builder.finish());
+        } else if(error == ParseResult.INVALID_CHARACTER) {
+            result = ParseResult.invalidCharacter(tokenizer.character(), tokenizer.tokenStart());
+        } else {
+            //At the end of the text, tokenStart() is the length of the text
+            result = ParseResult.error(error, (error == ParseResult.EMPTY) ? 0 : tokenizer.tokenStart());
+        }
+
+        if(Metrics.ENABLED) {
+            Metrics.parsed(System.nanoTime() - startTime, tokenizer.tokenCount(), result.isValid());
+        }
+        tokenizer.reset(""); //so the thread's Tokenizer doesn't keep the text alive
+        return result;
+    }
+
+
+    /**
+     * The stacks for the shunting-yard algorithm used by parseSinglePass(). Operators wait on a
+     * stack until an operator of lower or equal precedence (or a closing parenthesis) arrives.
+     * The operator values double as their precedence, so / binds tighter than *, which binds
+     * tighter than -, which binds tighter than +, just like the sweeps in parseTokens().
+     * Implied multiplication is inserted whenever an operand or an opening parenthesis follows
+     * a finished operand.
+     */
+    private static class TreeBuilder {
+
+        private static final int OPEN_PAREN = -1;
+
+        private Node[] operands = new Node[16];
+        private int operandCount = 0;
+
+        private int[] operators = new int[16]; //operator values, or OPEN_PAREN
+        private int operatorCount = 0;
+
+        private int openParentheses = 0;
+        private boolean expectOperand = true;
+
+        /* If the next token has to start an operand (so a minus sign would be a negative) */
+        public boolean expectingOperand() {
+            return expectOperand;
+        }
+
+        public int openParentheses() {
+            return openParentheses;
+        }
+
+        public void operand(Node node) {
+            impliedMultiplication();
+            if(operandCount == operands.length) {
+                operands = Arrays.copyOf(operands, operandCount * 2);
+            }
+            operands[operandCount++] = node;
+            expectOperand = false;
+        }
+
+        public void operator(int value) {
+            while(operatorCount > 0 && operators[operatorCount-1] >= value) {
+                reduce();
+            }
+            pushOperator(value);
+            expectOperand = true;
+        }
+
+        public void open() {
+            impliedMultiplication();
+            pushOperator(OPEN_PAREN);
+            openParentheses++;
+            expectOperand = true;
+        }
+
+        public void close() {
+            while(operators[operatorCount-1] != OPEN_PAREN) {
+                reduce();
+            }
+            operatorCount--;
+            openParentheses--;
+        }
+
+        /* Reduces what is left on the stacks and returns the root of the tree */
+        public Node finish() {
+            while(operatorCount > 0) {
+                reduce();
+            }
+            return operands[0];
+        }
+
+        private void impliedMultiplication() {
+            if(!expectOperand) {
+                operator(2);
+            }
+        }
+
+        private void pushOperator(int value) {
+            if(operatorCount == operators.length) {
+                operators = Arrays.copyOf(operators, operatorCount * 2);
+            }
+            operators[operatorCount++] = value;
+        }
+
+        /* Pops the top operator and gives it the top two operands as children */
+        private void reduce() {
+            Node right = operands[--operandCount];
+            Node left = operands[operandCount-1];
+            operands[operandCount-1] = new Operator(operators[--operatorCount], left, right);
+            operands[operandCount] = null;
+        }
+    }
+
+    /**
+     * This function deals with parentheses in the string. It finds the innermost set of
+     * parentheses, joins up the operators inside it, and repeats, so in this way we "drill
+     * down" to parse every symbol in the correct order. The innermost set never has any
+     * parentheses inside it, so no recursion is needed no matter how deeply they are nested.
      * If this runs with no invalid syntax, then the tokens arraylist will be whittled down
      * into only one element.
      * @param tokens the list of tokens, ordered by how they appeared in the original string
-     * @param start the start index (all recursive calls share the same array)
+     * @param start the start index
      * @param end the end index
-     * @param offset a convenience argument to keep of how deep we are in the recursion
      */
-    private void parseTokens(ArrayList<Node> tokens, int start, int end, String offset) {
+    private void parseTokens(ArrayList<Node> tokens, int start, int end) {
 
         int prevLength = end-start;
 
@@ -204,51 +461,85 @@ public class Parser {
                 }
 
                 if(openingParen == -1) {
-                    System.out.println(offset + "Error: parentheses not matching!");
+                    //A ')' with no '(' before it, so the tokens can't become one tree
+                    return;
                 }
 
                 tokens.remove(closingParen);
                 tokens.remove(openingParen);
 
-                parseTokens(tokens, openingParen, closingParen-1, offset+"  ");
+                joinOperators(tokens, openingParen, closingParen-1);
                 end -= closingParen - openingParen;
 
 
             } else {
                 //Found no parentheses
-            
-                for(int op_id = operatorsList.length()-1; op_id>=0; op_id--) {
+                end = sweepOperators(tokens, start, end);
+            }
 
-                    for(int i=start; i < end; i++) {
+            if(end-start == prevLength) {
+                // System.out.println("Invalid expression");
+                //Invalid expression
+                break;
+            }
 
-                        Node currentToken = tokens.get(i);
-                        if(currentToken.isOperator() && currentToken.isLeaf() && currentToken.value() == op_id) {
+            prevLength = end-start;
 
-                            currentToken.setChildren(tokens.get(i-1), tokens.get(i+1));
+        }
 
-                            //NOTE: the order we remove them matters
-                            tokens.remove(i+1);
-                            tokens.remove(i-1);
-                            i -= 1;
+    }
 
-                            end = end - 2;
-                        }
-                    }
+    /* Joins up the operators between start and end, which has no parentheses, until nothing changes */
+    private void joinOperators(ArrayList<Node> tokens, int start, int end) {
 
-                }
+        int prevLength = end-start;
 
-            }
+        while(end-start > 1) {
+            end = sweepOperators(tokens, start, end);
 
             if(end-start == prevLength) {
-                // System.out.println("Invalid expression");
                 //Invalid expression
                 break;
             }
 
             prevLength = end-start;
+        }
+    }
+
+    /**
+     * Gives each operator between start and end the tokens on either side of it as children,
+     * going through the operators from highest to lowest precedence
+     * @return the new end index
+     */
+    private int sweepOperators(ArrayList<Node> tokens, int start, int end) {
+
+        for(int op_id = operatorsList.length()-1; op_id>=0; op_id--) {
+
+            for(int i=start; i < end; i++) {
+
+                Node currentToken = tokens.get(i);
+                if(currentToken.isOperator() && currentToken.isLeaf() && currentToken.value() == op_id) {
+
+                    if(i == 0 || i+1 >= tokens.size()) {
+                        //Nothing on one side, so the expression is invalid. Leave the
+                        //operator alone and let the caller find out there is more than one token
+                        continue;
+                    }
+
+                    currentToken.setChildren(tokens.get(i-1), tokens.get(i+1));
+
+                    //NOTE: the order we remove them matters
+                    tokens.remove(i+1);
+                    tokens.remove(i-1);
+                    i -= 1;
+
+                    end = end - 2;
+                }
+            }
 
         }
 
+        return end;
     }
 
-}
\ No newline at end of file
+}
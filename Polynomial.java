@@ -0,0 +1,275 @@
+import java.util.Arrays;
+
+/**
+ * A polynomial in x with Rational coefficients, such as 3x^2 - 1/2x + 4. The coefficients are
+ * kept in an array indexed by power, so coefficients[2] is the number in front of x^2, and the
+ * last entry is never zero (the zero polynomial has no entries at all). Adding, multiplying and
+ * dividing are loops over these arrays, so expanding something like (x+1)(x-2)(x+3) never
+ * builds or rewrites any trees.
+ *
+ * Polynomials are immutable, so they can be shared freely.
+ */
+public final class Polynomial {
+
+    public static final Polynomial ZERO = new Polynomial(new Rational[0]);
+    public static final Polynomial ONE = new Polynomial(new Rational[] {Rational.ONE});
+    public static final Polynomial X = new Polynomial(new Rational[] {Rational.ZERO, Rational.ONE});
+
+    private final Rational[] coefficients;
+
+    /* Takes the array as it is, which must already have no zero at the end */
+    private Polynomial(Rational[] coefficients) {
+        this.coefficients = coefficients;
+    }
+
+    /* A constant */
+    public static Polynomial of(Rational value) {
+        if(value.isZero()) {
+            return ZERO;
+        }
+        return new Polynomial(new Rational[] {value});
+    }
+
+    /**
+     * The polynomial with these coefficients, lowest power first. Zeros at the end are dropped,
+     * and the array is copied.
+     */
+    public static Polynomial of(Rational... coefficients) {
+        return trimmed(coefficients.clone());
+    }
+
+    /* Drops the zeros at the end of an array which nothing else uses */
+    private static Polynomial trimmed(Rational[] coefficients) {
+        int length = coefficients.length;
+        while(length > 0 && coefficients[length-1].isZero()) {
+            length--;
+        }
+        if(length == 0) {
+            return ZERO;
+        }
+        if(length != coefficients.length) {
+            coefficients = Arrays.copyOf(coefficients, length);
+        }
+        return new Polynomial(coefficients);
+    }
+
+
+    /* The highest power of x, or -1 for the zero polynomial */
+    public int degree() {
+        return coefficients.length - 1;
+    }
+
+    public boolean isZero() {
+        return coefficients.length == 0;
+    }
+
+    /* If there is no x in it (which includes zero) */
+    public boolean isConstant() {
+        return coefficients.length <= 1;
+    }
+
+    /* The number in front of x^power, which is zero past the degree */
+    public Rational coefficient(int power) {
+        return (power < coefficients.length) ? coefficients[power] : Rational.ZERO;
+    }
+
+    /* The number in front of the highest power of x */
+    public Rational leadingCoefficient() {
+        return coefficient(degree());
+    }
+
+
+    public Polynomial add(Polynomial other) {
+        Rational[] longer = (coefficients.length >= other.coefficients.length) ? coefficients : other.coefficients;
+        Rational[] shorter = (longer == coefficients) ? other.coefficients : coefficients;
+
+        Rational[] sum = longer.clone();
+        for(int i = 0; i < shorter.length; i++) {
+            sum[i] = sum[i].add(shorter[i]);
+        }
+        return trimmed(sum);
+    }
+
+    public Polynomial subtract(Polynomial other) {
+        return add(other.negate());
+    }
+
+    public Polynomial negate() {
+        Rational[] negated = new Rational[coefficients.length];
+        for(int i = 0; i < coefficients.length; i++) {
+            negated[i] = coefficients[i].negate();
+        }
+        return new Polynomial(negated);
+    }
+
+    public Polynomial multiply(Polynomial other) {
+        if(isZero() || other.isZero()) {
+            return ZERO;
+        }
+        if(other.isConstant()) {
+            return scale(other.coefficients[0]);
+        }
+        if(isConstant()) {
+            return other.scale(coefficients[0]);
+        }
+
+        Rational[] product = new Rational[coefficients.length + other.coefficients.length - 1];
+        Arrays.fill(product, Rational.ZERO);
+        for(int i = 0; i < coefficients.length; i++) {
+            if(coefficients[i].isZero()) {
+                continue;
+            }
+            for(int j = 0; j < other.coefficients.length; j++) {
+                if(!other.coefficients[j].isZero()) {
+                    product[i+j] = product[i+j].add(coefficients[i].multiply(other.coefficients[j]));
+                }
+            }
+        }
+        //The product of the two leading coefficients isn't zero, so nothing needs trimming
+        return new Polynomial(product);
+    }
+
+    /* Every coefficient multiplied by factor */
+    public Polynomial scale(Rational factor) {
+        if(factor.isZero()) {
+            return ZERO;
+        }
+        if(factor.equals(Rational.ONE)) {
+            return this;
+        }
+        Rational[] scaled = new Rational[coefficients.length];
+        for(int i = 0; i < coefficients.length; i++) {
+            scaled[i] = coefficients[i].multiply(factor);
+        }
+        return new Polynomial(scaled);
+    }
+
+    /**
+     * Long division
+     * @return the quotient at index 0 and the remainder at index 1, whose degree is less than
+     *         the divisor's
+     * @throws ArithmeticException if divisor is zero
+     */
+    public Polynomial[] divideAndRemainder(Polynomial divisor) {
+        if(divisor.isZero()) {
+            throw new ArithmeticException("Cannot divide " + this + " by 0");
+        }
+        if(divisor.degree() > degree()) {
+            return new Polynomial[] {ZERO, this};
+        }
+
+        Rational[] remainder = coefficients.clone();
+        Rational[] quotient = new Rational[degree() - divisor.degree() + 1];
+        Rational lead = divisor.leadingCoefficient();
+
+        for(int i = quotient.length - 1; i >= 0; i--) {
+            Rational factor = remainder[i + divisor.degree()].divide(lead);
+            quotient[i] = factor;
+            if(factor.isZero()) {
+                continue;
+            }
+            for(int j = 0; j <= divisor.degree(); j++) {
+                remainder[i+j] = remainder[i+j].subtract(factor.multiply(divisor.coefficients[j]));
+            }
+        }
+        return new Polynomial[] {trimmed(quotient), trimmed(remainder)};
+    }
+
+    /* The same polynomial divided by its leading coefficient, so that coefficient becomes 1 */
+    public Polynomial monic() {
+        if(isZero() || leadingCoefficient().equals(Rational.ONE)) {
+            return this;
+        }
+        return scale(Rational.ONE.divide(leadingCoefficient()));
+    }
+
+    /**
+     * The monic polynomial of highest degree which divides both, found with Euclid's algorithm.
+     * gcd(p, 0) is p made monic, and gcd(0, 0) is 0.
+     */
+    public static Polynomial gcd(Polynomial a, Polynomial b) {
+        while(!b.isZero()) {
+            Polynomial remainder = a.divideAndRemainder(b)[1];
+            a = b;
+            b = remainder;
+        }
+        return a.monic();
+    }
+
+    /* The value at x, worked out with Horner's rule */
+    public Rational evaluate(Rational x) {
+        Rational value = Rational.ZERO;
+        for(int i = coefficients.length - 1; i >= 0; i--) {
+            value = value.multiply(x).add(coefficients[i]);
+        }
+        return value;
+    }
+
+    public Polynomial derivative() {
+        if(isConstant()) {
+            return ZERO;
+        }
+        Rational[] derivative = new Rational[coefficients.length - 1];
+        for(int i = 1; i < coefficients.length; i++) {
+            derivative[i-1] = coefficients[i].multiply(Rational.of(i));
+        }
+        return trimmed(derivative);
+    }
+
+
+    /**
+     * Turns this into tree form, highest power first, such as 3*x*x-1/2*x+4. A negative
+     * coefficient after the first term is written as a subtraction. The terms are joined from
+     * the left, so the tree reads the same as the text.
+     */
+    public Node toNode() {
+        if(isZero()) {
+            return new Number(0);
+        }
+
+        Node tree = null;
+        for(int power = degree(); power >= 0; power--) {
+            Rational coefficient = coefficients[power];
+            if(coefficient.isZero()) {
+                continue;
+            }
+            if(tree == null) {
+                tree = term(coefficient, power);
+            } else if(coefficient.signum() < 0) {
+                tree = new Operator(1, tree, term(coefficient.negate(), power));
+            } else {
+                tree = new Operator(0, tree, term(coefficient, power));
+            }
+        }
+        return tree;
+    }
+
+    /* coefficient*x*x... with power x's. A coefficient of 1 is left out */
+    private static Node term(Rational coefficient, int power) {
+        if(power == 0) {
+            return coefficient.toNode();
+        }
+        Node powerOfX = new Variable('x');
+        for(int i = 1; i < power; i++) {
+            powerOfX = new Operator(2, powerOfX, new Variable('x'));
+        }
+        if(coefficient.equals(Rational.ONE)) {
+            return powerOfX;
+        }
+        return new Operator(2, coefficient.toNode(), powerOfX);
+    }
+
+
+    public boolean equals(Object other) {
+        return (other instanceof Polynomial) && Arrays.equals(coefficients, ((Polynomial) other).coefficients);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(coefficients);
+    }
+
+    /* The same text as toNode().toStringIncludingChildren() */
+    public String toString() {
+        return toNode().toStringIncludingChildren();
+    }
+}
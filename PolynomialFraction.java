@@ -0,0 +1,166 @@
+/**
+ * One polynomial in x divided by another, such as (x+1)/(x-2). This is what an expression with
+ * x simplifies to, since dividing by something with x in it doesn't always come out even.
+ *
+ * It is always kept in lowest terms: the top and bottom have no common factor with x in it, and
+ * the bottom's leading coefficient is 1. So an expression which is really a polynomial, like
+ * (x*x-1)/(x-1), always ends up with a bottom of 1.
+ */
+public final class PolynomialFraction {
+
+    public final Polynomial numerator;
+    public final Polynomial denominator;
+
+    /* Assumes it is already in lowest terms */
+    private PolynomialFraction(Polynomial numerator, Polynomial denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+    }
+
+    public static PolynomialFraction of(Polynomial polynomial) {
+        return new PolynomialFraction(polynomial, Polynomial.ONE);
+    }
+
+    /**
+     * numerator/denominator in lowest terms
+     * @throws ArithmeticException if the denominator is zero
+     */
+    public static PolynomialFraction of(Polynomial numerator, Polynomial denominator) {
+        if(denominator.isZero()) {
+            throw new ArithmeticException("Cannot divide " + numerator + " by 0");
+        }
+        if(numerator.isZero()) {
+            return of(Polynomial.ZERO);
+        }
+        if(denominator.isConstant()) {
+            return of(numerator.scale(Rational.ONE.divide(denominator.leadingCoefficient())));
+        }
+
+        //Only look for a common factor when both have an x, since that's the only time there can be one
+        if(!numerator.isConstant()) {
+            Polynomial gcd = Polynomial.gcd(numerator, denominator);
+            if(gcd.degree() > 0) {
+                numerator = numerator.divideAndRemainder(gcd)[0];
+                denominator = denominator.divideAndRemainder(gcd)[0];
+            }
+        }
+
+        Rational lead = denominator.leadingCoefficient();
+        if(!lead.equals(Rational.ONE)) {
+            Rational inverse = Rational.ONE.divide(lead);
+            numerator = numerator.scale(inverse);
+            denominator = denominator.scale(inverse);
+        }
+        return new PolynomialFraction(numerator, denominator);
+    }
+
+    /* If the bottom is 1 */
+    public boolean isPolynomial() {
+        return denominator.degree() == 0;
+    }
+
+    public boolean isZero() {
+        return numerator.isZero();
+    }
+
+    public PolynomialFraction add(PolynomialFraction other) {
+        if(isPolynomial() && other.isPolynomial()) {
+            return of(numerator.add(other.numerator));
+        }
+        if(denominator.equals(other.denominator)) {
+            return of(numerator.add(other.numerator), denominator);
+        }
+        return of(numerator.multiply(other.denominator).add(other.numerator.multiply(denominator)),
+            denominator.multiply(other.denominator));
+    }
+
+    public PolynomialFraction subtract(PolynomialFraction other) {
+        return add(other.negate());
+    }
+
+    public PolynomialFraction negate() {
+        return new PolynomialFraction(numerator.negate(), denominator);
+    }
+
+    public PolynomialFraction multiply(PolynomialFraction other) {
+        if(isPolynomial() && other.isPolynomial()) {
+            return of(numerator.multiply(other.numerator));
+        }
+        return of(numerator.multiply(other.numerator), denominator.multiply(other.denominator));
+    }
+
+    /**
+     * @throws ArithmeticException if other is zero. Callers which want a friendly message
+     *                             should check isZero() first.
+     */
+    public PolynomialFraction divide(PolynomialFraction other) {
+        return of(numerator.multiply(other.denominator), denominator.multiply(other.numerator));
+    }
+
+    /* The value at x, or null if the bottom is zero there */
+    public Rational evaluate(Rational x) {
+        Rational bottom = denominator.evaluate(x);
+        if(bottom.isZero()) {
+            return null;
+        }
+        return numerator.evaluate(x).divide(bottom);
+    }
+
+    /**
+     * Tree form: the top's tree, divided by the bottom's tree if the bottom isn't 1. The tree
+     * doesn't hold parentheses, so the division puts them in itself when it is printed, and
+     * (x+1)/(x-2) doesn't come out as x+1/x-2.
+     */
+    public Node toNode() {
+        if(isPolynomial()) {
+            return numerator.toNode();
+        }
+        return new Division(this);
+    }
+
+
+    public boolean equals(Object other) {
+        if(!(other instanceof PolynomialFraction)) {
+            return false;
+        }
+        PolynomialFraction that = (PolynomialFraction) other;
+        return numerator.equals(that.numerator) && denominator.equals(that.denominator);
+    }
+
+    public int hashCode() {
+        return numerator.hashCode() * 31 + denominator.hashCode();
+    }
+
+    /* The same text as toNode().toStringIncludingChildren() */
+    public String toString() {
+        if(isPolynomial()) {
+            return numerator.toString();
+        }
+        String bottom = denominator.toString();
+        if(bottom.indexOf('*') != -1 || !isOneTerm(denominator, bottom)) {
+            //Dividing by x*x has to be /(x*x), not /x*x
+            bottom = "(" + bottom + ")";
+        }
+        String top = numerator.toString();
+        return (isOneTerm(numerator, top) ? top : "(" + top + ")") + "/" + bottom;
+    }
+
+    private static boolean isOneTerm(Polynomial polynomial, String text) {
+        return polynomial.isConstant() || text.indexOf('+') == -1 && text.lastIndexOf('-') <= 0;
+    }
+
+
+    /* An ordinary / Operator, except that it prints its sides the way toString() does */
+    private static class Division extends Operator {
+        private final PolynomialFraction fraction;
+
+        Division(PolynomialFraction fraction) {
+            super(3, fraction.numerator.toNode(), fraction.denominator.toNode());
+            this.fraction = fraction;
+        }
+
+        public String toStringIncludingChildren() {
+            return fraction.toString();
+        }
+    }
+}
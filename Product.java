@@ -0,0 +1,161 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * The running product of a whole chain of * and /, such as 1/2 * 3/4 * 5/6 * ... / 7. A
+ * Product multiplies each term's top and bottom onto a running top and bottom, and only
+ * reduces once at the end (or when the numbers get too big for a long), instead of reducing
+ * after every * like a chain of binary Operators would. If it still doesn't fit, it moves to
+ * BigIntegers, which are reduced every so often so they don't keep growing.
+ *
+ * Only the left side of the chain is part of it, which is the way Parser builds a*b/c*d. A right
+ * side like the b*c in a/(b*c) stays as one term, so that dividing by zero gives the same error
+ * as it would with Operators. Like Sum, a Product is only used by Operator.simplifyAnswer(),
+ * and isn't a Node.
+ */
+class Product implements Accumulator {
+
+    //Chains with fewer terms than this are left as Operators
+    static final int MIN_TERMS = 8;
+
+    //The Operators down the left side of the chain, with the lowest on top. Each one's right
+    //side is the next term after the one before it
+    private Node[] stack = new Node[MIN_TERMS];
+    private int top = 0;
+    private Node first; //the term at the bottom left, until it has been given out
+    private boolean divide; //if the last term given out is divided by
+
+    private long numerator = 1;
+    private long denominator = 1;
+
+    private BigInteger bigNumerator; //only used once the product is too big for longs
+    private BigInteger bigDenominator;
+    private int unreduced; //terms multiplied into the big product since it was last reduced
+
+    //The big product is reduced every this many terms
+    private static final int REDUCE_EVERY = 16;
+
+    private Product(Node root) {
+        Node node = root;
+        while(isChain(node)) {
+            if(top == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = node;
+            node = node.left;
+        }
+        first = node;
+    }
+
+    /**
+     * A new running product, starting at 1, for the chain of * and / down the left side of
+     * root
+     */
+    static Product of(Node root) {
+        return new Product(root);
+    }
+
+    /* If root is a chain of * and / with at least MIN_TERMS terms. Stops counting once it gets there */
+    static boolean isLongChain(Node root) {
+        int terms = 1;
+        Node node = root;
+        while(isChain(node) && terms < MIN_TERMS) {
+            terms++;
+            node = node.left;
+        }
+        return terms >= MIN_TERMS;
+    }
+
+    static boolean isChain(Node node) {
+        return (node instanceof Operator) && (node.value == 2 || node.value == 3);
+    }
+
+    public Node nextTerm() {
+        if(first != null) {
+            Node term = first;
+            first = null;
+            divide = false;
+            return term;
+        }
+        if(top == 0) {
+            return null;
+        }
+        Node parent = stack[--top];
+        divide = (parent.value == 3);
+        return parent.right;
+    }
+
+    public Node add(Node answer) {
+        Rational value = Rational.of(answer);
+        if(divide) {
+            if(value.isZero()) {
+                if(Metrics.ENABLED) {
+                    Metrics.dividedByZero();
+                }
+                return Node.ErrorNode("Cannot divide "+current()+" by 0");
+            }
+            value = Rational.ONE.divide(value);
+        }
+
+        if(bigNumerator == null && !value.isBig() && multiplyFast(value.longNumerator(), value.longDenominator())) {
+            return null;
+        }
+        if(bigNumerator == null) {
+            bigNumerator = BigInteger.valueOf(numerator);
+            bigDenominator = BigInteger.valueOf(denominator);
+        }
+        bigNumerator = bigNumerator.multiply(value.numerator());
+        bigDenominator = bigDenominator.multiply(value.denominator());
+
+        unreduced++;
+        if(unreduced >= REDUCE_EVERY) {
+            BigInteger common = bigNumerator.gcd(bigDenominator);
+            bigNumerator = bigNumerator.divide(common);
+            bigDenominator = bigDenominator.divide(common);
+            unreduced = 0;
+        }
+        return null;
+    }
+
+    /* @return false if it doesn't fit in a long, and then nothing was changed */
+    private boolean multiplyFast(long top, long bottom) {
+        if(tryMultiply(top, bottom)) {
+            return true;
+        }
+        if(numerator == Long.MIN_VALUE) {
+            return false;
+        }
+        //Reduce the product, and try once more
+        long common = Rational.gcd(numerator, denominator);
+        numerator /= common;
+        denominator /= common;
+        return tryMultiply(top, bottom);
+    }
+
+    /* @return false if it doesn't fit in a long, and then nothing was changed */
+    private boolean tryMultiply(long top, long bottom) {
+        long newNumerator;
+        long newDenominator;
+        try {
+            newNumerator = Math.multiplyExact(numerator, top);
+            newDenominator = Math.multiplyExact(denominator, bottom);
+        } catch(ArithmeticException overflow) {
+            return false;
+        }
+        numerator = newNumerator;
+        denominator = newDenominator;
+        return true;
+    }
+
+    /* The product so far, reduced */
+    private Rational current() {
+        if(bigNumerator != null) {
+            return Rational.of(bigNumerator, bigDenominator);
+        }
+        return Rational.of(numerator, denominator);
+    }
+
+    public Node answer() {
+        return current().toNode();
+    }
+}
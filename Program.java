@@ -0,0 +1,363 @@
+import java.util.Arrays;
+
+/**
+ * An expression tree lowered into a flat program for a small stack machine, so that the same
+ * expression can be evaluated over and over (for example with different values of x) without
+ * walking the tree. The program is the tree in postfix order: numbers and x are pushed onto
+ * the stack, and each operator pops two values and pushes the result.
+ *
+ * Evaluation first runs on plain long numerators and denominators, with no objects created
+ * until the answer is turned back into a Node. If a value overflows a long, the program is
+ * run again from the start with Rationals, which switch to BigIntegers as needed.
+ *
+ * A Program never changes after it is compiled, so one Program can be used by many threads.
+ */
+public final class Program implements Evaluator {
+
+    //Opcodes. The arithmetic ones are OPERATOR + the Operator value (0 to 3 for + - * /)
+    static final int PUSH = 0;
+    static final int PUSH_X = 1;
+    static final int OPERATOR = 2;
+    static final int ADD = OPERATOR + 0;
+    static final int SUBTRACT = OPERATOR + 1;
+    static final int MULTIPLY = OPERATOR + 2;
+    static final int DIVIDE = OPERATOR + 3;
+
+    //Each instruction is its opcode in the low 8 bits and, for PUSH, an index into the constants
+    private final int[] code;
+    private final long[] constants;
+    private final Rational[] rationalConstants;
+    private final boolean smallConstants; //if every constant fits in constants[]
+    private final int maxStack;
+    private final boolean usesVariable;
+
+    //Results of runFast()
+    private static final int DONE = 0;
+    private static final int OVERFLOW = 1;
+    private static final int DIVIDE_BY_ZERO = 2;
+
+
+    private Program(int[] code, Rational[] rationalConstants, int maxStack, boolean usesVariable) {
+        this.code = code;
+        this.rationalConstants = rationalConstants;
+        this.maxStack = maxStack;
+        this.usesVariable = usesVariable;
+
+        this.constants = new long[rationalConstants.length];
+        boolean small = true;
+        for(int i = 0; i < rationalConstants.length; i++) {
+            if(rationalConstants[i].isBig()) {
+                small = false;
+            } else {
+                constants[i] = rationalConstants[i].longNumerator();
+            }
+        }
+        this.smallConstants = small;
+    }
+
+    /**
+     * Lowers a tree made of Numbers, Variables and Operators (such as one from Parser) into a
+     * Program. Every Variable is treated as x.
+     */
+    public static Program compile(Node root) {
+        Compiler compiler = new Compiler();
+        compiler.emit(root);
+        return new Program(compiler.code(), compiler.constants(), compiler.maxStack, compiler.usesVariable);
+    }
+
+    /* If the expression contains x */
+    public boolean usesVariable() {
+        return usesVariable;
+    }
+
+    /**
+     * Evaluates an expression without x. Gives the same answer as simplifyAnswer() on the tree
+     * it was compiled from: a Number, a reduced fraction, or an ErrorNode.
+     */
+    public Node evaluate() {
+        if(usesVariable) {
+            return Node.ErrorNode("No value was given for x");
+        }
+        return evaluate(0, 1);
+    }
+
+    /* Evaluates the expression with x set to a whole number */
+    public Node evaluate(long x) {
+        return evaluate(x, 1);
+    }
+
+    /* Evaluates the expression with x set to any Rational */
+    public Node evaluate(Rational x) {
+        if(x.isBig()) {
+            return runRational(x);
+        }
+        return evaluate(x.longNumerator(), x.longDenominator());
+    }
+
+    private Node evaluate(long xNumerator, long xDenominator) {
+        if(smallConstants && xNumerator != Long.MIN_VALUE) {
+            long[] numerators = new long[maxStack];
+            long[] denominators = new long[maxStack];
+
+            int result = runFast(xNumerator, xDenominator, numerators, denominators);
+            if(result == DONE) {
+                if(denominators[0] == 1) {
+                    return new Number(numerators[0]);
+                }
+                return new Operator(3, new Number(numerators[0]), new Number(denominators[0]));
+            } else if(result == DIVIDE_BY_ZERO) {
+                //The value being divided was left at the bottom of the arrays
+                if(Metrics.ENABLED) {
+                    Metrics.dividedByZero();
+                }
+                return Node.ErrorNode("Cannot divide " + Rational.of(numerators[0], denominators[0]) + " by 0");
+            }
+        }
+        return runRational(Rational.of(xNumerator, xDenominator));
+    }
+
+    /**
+     * The interpreter loop on longs. Every fraction on the stack is kept in lowest terms with a
+     * positive denominator, just like a Rational.
+     * @return DONE with the answer at index 0, DIVIDE_BY_ZERO with the value being divided at
+     *         index 0, or OVERFLOW if a long wasn't big enough
+     */
+    private int runFast(long xNumerator, long xDenominator, long[] numerators, long[] denominators) {
+        int top = -1;
+
+        for(int pc = 0; pc < code.length; pc++) {
+            int instruction = code[pc];
+            int opcode = instruction & 0xFF;
+
+            if(opcode == PUSH) {
+                top++;
+                numerators[top] = constants[instruction >>> 8];
+                denominators[top] = 1;
+                continue;
+            } else if(opcode == PUSH_X) {
+                top++;
+                numerators[top] = xNumerator;
+                denominators[top] = xDenominator;
+                continue;
+            }
+
+            top--;
+            if(opcode == DIVIDE && numerators[top+1] == 0) {
+                numerators[0] = numerators[top];
+                denominators[0] = denominators[top];
+                return DIVIDE_BY_ZERO;
+            }
+            if(!applyFast(opcode, numerators[top], denominators[top], numerators[top+1], denominators[top+1],
+                numerators, denominators, top)) {
+                return OVERFLOW;
+            }
+        }
+
+        return DONE;
+    }
+
+    /**
+     * Applies one arithmetic opcode to the fractions a/b and c/d, which must be in lowest terms
+     * with positive bottoms, and stores the answer (also in lowest terms) at index in the arrays.
+     * @return false if the answer doesn't fit in a long, or if it is a division by zero
+     */
+    static boolean applyFast(int opcode, long a, long b, long c, long d,
+                             long[] numerators, long[] denominators, int index) {
+        long resultTop;
+        long resultBottom;
+
+        try {
+            switch(opcode) {
+                case ADD:
+                case SUBTRACT: {
+                    if(opcode == SUBTRACT) {
+                        c = -c;
+                    }
+                    if(b == 1 && d == 1) {
+                        resultTop = Math.addExact(a, c);
+                        resultBottom = 1;
+                    } else {
+                        long gcd = Rational.gcd(b, d);
+                        resultTop = Math.addExact(Math.multiplyExact(a, d / gcd), Math.multiplyExact(c, b / gcd));
+                        resultBottom = Math.multiplyExact(b / gcd, d);
+                        if(resultTop == Long.MIN_VALUE) {
+                            return false;
+                        }
+                        long common = Rational.gcd(resultTop, resultBottom);
+                        resultTop /= common;
+                        resultBottom /= common;
+                    }
+                } break;
+
+                case MULTIPLY:
+                case DIVIDE: {
+                    if(opcode == DIVIDE) {
+                        if(c == 0) {
+                            return false;
+                        }
+                        //Multiply by the flipped fraction, keeping the bottom positive
+                        long flippedTop = (c < 0) ? -d : d;
+                        d = (c < 0) ? -c : c;
+                        c = flippedTop;
+                    }
+                    if(b == 1 && d == 1) {
+                        resultTop = Math.multiplyExact(a, c);
+                        resultBottom = 1;
+                    } else {
+                        long gcdA = Rational.gcd(a, d);
+                        long gcdB = Rational.gcd(c, b);
+                        resultTop = Math.multiplyExact(a / gcdA, c / gcdB);
+                        resultBottom = Math.multiplyExact(b / gcdB, d / gcdA);
+                    }
+                } break;
+
+                default: {
+                    throw new Error("Invalid opcode: " + opcode);
+                }
+            }
+        } catch(ArithmeticException overflow) {
+            return false;
+        }
+
+        if(resultTop == Long.MIN_VALUE) {
+            return false;
+        }
+        numerators[index] = resultTop;
+        denominators[index] = resultBottom;
+        return true;
+    }
+
+    /**
+     * The interpreter loop on Rationals, for when longs aren't big enough. ExpressionCompiler's
+     * classes use it for the same thing.
+     */
+    Node runRational(Rational x) {
+        Rational[] stack = new Rational[maxStack];
+        int top = -1;
+
+        for(int pc = 0; pc < code.length; pc++) {
+            int instruction = code[pc];
+            int opcode = instruction & 0xFF;
+
+            if(opcode == PUSH) {
+                stack[++top] = rationalConstants[instruction >>> 8];
+                continue;
+            } else if(opcode == PUSH_X) {
+                stack[++top] = x;
+                continue;
+            }
+
+            Rational right = stack[top--];
+            Rational left = stack[top];
+
+            switch(opcode) {
+                case ADD: stack[top] = left.add(right); break;
+                case SUBTRACT: stack[top] = left.subtract(right); break;
+                case MULTIPLY: stack[top] = left.multiply(right); break;
+                case DIVIDE: {
+                    if(right.isZero()) {
+                        if(Metrics.ENABLED) {
+                            Metrics.dividedByZero();
+                        }
+                        return Node.ErrorNode("Cannot divide " + left + " by 0");
+                    }
+                    stack[top] = left.divide(right);
+                } break;
+                default: {
+                    throw new Error("Invalid opcode: " + opcode);
+                }
+            }
+        }
+
+        return stack[0].toNode();
+    }
+
+
+    //For other evaluators (like BatchEvaluator) which run the same instructions. Don't change
+    //the arrays they return
+
+    int[] instructions() {
+        return code;
+    }
+
+    long[] longConstants() {
+        return constants;
+    }
+
+    /* If every constant fits in longConstants() */
+    boolean hasSmallConstants() {
+        return smallConstants;
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+
+    /* Lists the instructions, one per line */
+    public String toString() {
+        String[] names = {"push", "push x", "add", "subtract", "multiply", "divide"};
+        StringBuilder text = new StringBuilder();
+        for(int instruction : code) {
+            int opcode = instruction & 0xFF;
+            text.append(names[opcode]);
+            if(opcode == PUSH) {
+                text.append(' ').append(rationalConstants[instruction >>> 8]);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+
+    /* Walks the tree in postfix order, writing out instructions */
+    private static class Compiler {
+        private int[] code = new int[16];
+        private int codeLength = 0;
+        private Rational[] constants = new Rational[8];
+        private int constantCount = 0;
+        private int maxStack = 0;
+        private boolean usesVariable = false;
+
+        /* Emits the instructions for the tree, working through it in post-order instead of recursing */
+        void emit(Node root) {
+            int depth = 0; //values on the stack
+            for(Node node : Node.postOrder(root)) {
+                if(node.isOperator()) {
+                    add(OPERATOR + node.value());
+                    depth--;
+                    continue;
+                }
+
+                if(node.isVariable()) {
+                    usesVariable = true;
+                    add(PUSH_X);
+                } else {
+                    if(constantCount == constants.length) {
+                        constants = Arrays.copyOf(constants, constantCount * 2);
+                    }
+                    constants[constantCount] = ((Number) node).rational();
+                    add(PUSH | (constantCount << 8));
+                    constantCount++;
+                }
+                depth++;
+                maxStack = Math.max(maxStack, depth);
+            }
+        }
+
+        private void add(int instruction) {
+            if(codeLength == code.length) {
+                code = Arrays.copyOf(code, codeLength * 2);
+            }
+            code[codeLength++] = instruction;
+        }
+
+        int[] code() {
+            return Arrays.copyOf(code, codeLength);
+        }
+
+        Rational[] constants() {
+            return Arrays.copyOf(constants, constantCount);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+import java.math.BigInteger;
+
+/**
+ * An exact fraction, always kept in lowest terms with a positive denominator. Rationals are
+ * immutable, so they can be shared freely. Reducing a fraction only needs the greatest common
+ * divisor of its top and bottom, which the binary GCD algorithm finds in a few dozen machine
+ * operations, instead of factoring both numbers.
+ *
+ * Almost every fraction fits in two longs, and the arithmetic stays on longs, using the
+ * Math.*Exact methods to notice when a result would overflow. Only then does it redo the
+ * operation with BigIntegers. A fraction which needs a BigInteger is kept that way, and moves
+ * back to longs as soon as it fits again, so each value has exactly one form.
+ */
+public final class Rational {
+
+    public static final Rational ZERO = new Rational(0, 1);
+    public static final Rational ONE = new Rational(1, 1);
+
+    //Used when the fraction fits in longs. Long.MIN_VALUE is never used, so negating is safe
+    private final long numerator;
+    private final long denominator;
+
+    //Used instead when it doesn't fit (both null otherwise)
+    private final BigInteger bigNumerator;
+    private final BigInteger bigDenominator;
+
+    /* Assumes the fraction is already in lowest terms with a positive denominator */
+    private Rational(long numerator, long denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        this.bigNumerator = null;
+        this.bigDenominator = null;
+    }
+
+    private Rational(BigInteger numerator, BigInteger denominator) {
+        this.numerator = 0;
+        this.denominator = 0;
+        this.bigNumerator = numerator;
+        this.bigDenominator = denominator;
+    }
+
+    /** A whole number */
+    public static Rational of(long value) {
+        if(value == Long.MIN_VALUE) {
+            return new Rational(BigInteger.valueOf(value), BigInteger.ONE);
+        }
+        return new Rational(value, 1);
+    }
+
+    public static Rational of(BigInteger value) {
+        return of(value, BigInteger.ONE);
+    }
+
+    /**
+     * The fraction numerator/denominator in lowest terms. The sign always ends up on top.
+     * @throws ArithmeticException if the denominator is zero
+     */
+    public static Rational of(long numerator, long denominator) {
+        if(denominator == 0) {
+            throw new ArithmeticException("Denominator is zero");
+        }
+        if(numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {
+            return of(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+        }
+
+        if(Metrics.ENABLED) {
+            Metrics.fractionReduced();
+        }
+        long gcd = gcd(numerator, denominator);
+        numerator /= gcd;
+        denominator /= gcd;
+
+        if(denominator < 0) {
+            numerator = -numerator;
+            denominator = -denominator;
+        }
+        return new Rational(numerator, denominator);
+    }
+
+    /**
+     * Same as of(long, long), for numbers of any size
+     * @throws ArithmeticException if the denominator is zero
+     */
+    public static Rational of(BigInteger numerator, BigInteger denominator) {
+        if(denominator.signum() == 0) {
+            throw new ArithmeticException("Denominator is zero");
+        }
+
+        if(Metrics.ENABLED) {
+            Metrics.fractionReduced();
+        }
+        BigInteger gcd = numerator.gcd(denominator);
+        if(!gcd.equals(BigInteger.ONE)) {
+            numerator = numerator.divide(gcd);
+            denominator = denominator.divide(gcd);
+        }
+        if(denominator.signum() < 0) {
+            numerator = numerator.negate();
+            denominator = denominator.negate();
+        }
+
+        if(fitsInLong(numerator) && fitsInLong(denominator)) {
+            return new Rational(numerator.longValue(), denominator.longValue());
+        }
+        return new Rational(numerator, denominator);
+    }
+
+    /* If the number fits in a long other than Long.MIN_VALUE */
+    private static boolean fitsInLong(BigInteger value) {
+        return value.bitLength() < 64 && value.longValue() != Long.MIN_VALUE;
+    }
+
+    /**
+     * Reads a Node which has already been simplified: either a Number, or a fraction, which is
+     * an Operator dividing one Number by another.
+     */
+    public static Rational of(Node simplified) {
+        if(simplified.isOperator()) {
+            Number top = (Number) simplified.left;
+            Number bottom = (Number) simplified.right;
+            if(top.isBig() || bottom.isBig()) {
+                return of(top.bigValue(), bottom.bigValue());
+            }
+            return of(top.longValue(), bottom.longValue());
+        }
+        return ((Number) simplified).rational();
+    }
+
+    /** Turns this back into tree form: a Number, or a fraction Operator if it isn't whole */
+    public Node toNode() {
+        if(bigNumerator != null) {
+            if(isInteger()) {
+                return new Number(bigNumerator);
+            }
+            return new Operator(3, new Number(bigNumerator), new Number(bigDenominator));
+        }
+
+        if(isInteger()) {
+            return new Number(numerator);
+        }
+        return new Operator(3, new Number(numerator), new Number(denominator));
+    }
+
+
+    public Rational add(Rational other) {
+        if(bigNumerator == null && other.bigNumerator == null) {
+            try {
+                if(denominator == 1 && other.denominator == 1) {
+                    return of(Math.addExact(numerator, other.numerator));
+                }
+                long gcd = gcd(denominator, other.denominator);
+                long top = Math.addExact(Math.multiplyExact(numerator, other.denominator / gcd),
+                    Math.multiplyExact(other.numerator, denominator / gcd));
+                return of(top, Math.multiplyExact(denominator / gcd, other.denominator));
+            } catch(ArithmeticException overflow) {
+                //Fall back to BigIntegers below
+            }
+        }
+
+        BigInteger top = numerator().multiply(other.denominator()).add(other.numerator().multiply(denominator()));
+        return of(top, denominator().multiply(other.denominator()));
+    }
+
+    public Rational subtract(Rational other) {
+        if(bigNumerator == null && other.bigNumerator == null) {
+            try {
+                if(denominator == 1 && other.denominator == 1) {
+                    return of(Math.subtractExact(numerator, other.numerator));
+                }
+                long gcd = gcd(denominator, other.denominator);
+                long top = Math.subtractExact(Math.multiplyExact(numerator, other.denominator / gcd),
+                    Math.multiplyExact(other.numerator, denominator / gcd));
+                return of(top, Math.multiplyExact(denominator / gcd, other.denominator));
+            } catch(ArithmeticException overflow) {
+                //Fall back to BigIntegers below
+            }
+        }
+
+        BigInteger top = numerator().multiply(other.denominator()).subtract(other.numerator().multiply(denominator()));
+        return of(top, denominator().multiply(other.denominator()));
+    }
+
+    public Rational multiply(Rational other) {
+        if(bigNumerator == null && other.bigNumerator == null) {
+            try {
+                if(denominator == 1 && other.denominator == 1) {
+                    return of(Math.multiplyExact(numerator, other.numerator));
+                }
+                //Cancel across the two fractions first, so the result is already in lowest terms
+                long gcdA = gcd(numerator, other.denominator);
+                long gcdB = gcd(other.numerator, denominator);
+                long top = Math.multiplyExact(numerator / gcdA, other.numerator / gcdB);
+                long bottom = Math.multiplyExact(denominator / gcdB, other.denominator / gcdA);
+                if(top != Long.MIN_VALUE) {
+                    return new Rational(top, bottom);
+                }
+            } catch(ArithmeticException overflow) {
+                //Fall back to BigIntegers below
+            }
+        }
+
+        return of(numerator().multiply(other.numerator()), denominator().multiply(other.denominator()));
+    }
+
+    /**
+     * @throws ArithmeticException if other is zero. Callers which want a friendly message
+     *                             should check isZero() first.
+     */
+    public Rational divide(Rational other) {
+        if(other.isZero()) {
+            throw new ArithmeticException("Cannot divide " + this + " by 0");
+        }
+        return multiply(other.reciprocal());
+    }
+
+    public Rational negate() {
+        if(bigNumerator != null) {
+            return new Rational(bigNumerator.negate(), bigDenominator);
+        }
+        return new Rational(-numerator, denominator);
+    }
+
+    /* One divided by this, which must not be zero */
+    private Rational reciprocal() {
+        if(bigNumerator != null) {
+            if(bigNumerator.signum() < 0) {
+                return new Rational(bigDenominator.negate(), bigNumerator.negate());
+            }
+            return new Rational(bigDenominator, bigNumerator);
+        }
+        if(numerator < 0) {
+            return new Rational(-denominator, -numerator);
+        }
+        return new Rational(denominator, numerator);
+    }
+
+    public boolean isInteger() {
+        if(bigNumerator != null) {
+            return bigDenominator.equals(BigInteger.ONE);
+        }
+        return denominator == 1;
+    }
+
+    public boolean isZero() {
+        return bigNumerator == null && numerator == 0;
+    }
+
+    public int signum() {
+        if(bigNumerator != null) {
+            return bigNumerator.signum();
+        }
+        return Long.signum(numerator);
+    }
+
+    /* If this needed BigIntegers. If not, longNumerator() and longDenominator() can be used */
+    public boolean isBig() {
+        return bigNumerator != null;
+    }
+
+    /* The top of the fraction, only meaningful if !isBig() */
+    public long longNumerator() {
+        return numerator;
+    }
+
+    /* The bottom of the fraction, only meaningful if !isBig() */
+    public long longDenominator() {
+        return denominator;
+    }
+
+    public BigInteger numerator() {
+        if(bigNumerator != null) {
+            return bigNumerator;
+        }
+        return BigInteger.valueOf(numerator);
+    }
+
+    public BigInteger denominator() {
+        if(bigNumerator != null) {
+            return bigDenominator;
+        }
+        return BigInteger.valueOf(denominator);
+    }
+
+
+    /**
+     * Greatest common divisor of a and b, using the binary GCD algorithm. It only needs shifts
+     * and subtractions, so it is cheap even for large values. The answer is never negative, and
+     * gcd(0, b) is |b|.
+     * @throws ArithmeticException if the answer is 2^63, which doesn't fit in a long
+     */
+    public static long gcd(long a, long b) {
+        if(a == Long.MIN_VALUE || b == Long.MIN_VALUE) {
+            return BigInteger.valueOf(a).gcd(BigInteger.valueOf(b)).longValueExact();
+        }
+        a = Math.abs(a);
+        b = Math.abs(b);
+        if(a == 0) {
+            return b;
+        }
+        if(b == 0) {
+            return a;
+        }
+
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+        while(b != 0) {
+            b >>= Long.numberOfTrailingZeros(b);
+            if(a > b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+
+    /**
+     * Least common multiple of a and b, which is never negative
+     * @throws ArithmeticException if the answer doesn't fit in a long
+     */
+    public static long leastCommonMultiple(long a, long b) {
+        if(a == 0 || b == 0) {
+            return 0;
+        }
+        return Math.abs(Math.multiplyExact(a / gcd(a, b), b));
+    }
+
+
+    public boolean equals(Object other) {
+        if(!(other instanceof Rational)) {
+            return false;
+        }
+        Rational that = (Rational) other;
+        if(bigNumerator != null || that.bigNumerator != null) {
+            //Each value only has one form, so a big one never equals a small one
+            return bigNumerator != null && that.bigNumerator != null
+                && bigNumerator.equals(that.bigNumerator) && bigDenominator.equals(that.bigDenominator);
+        }
+        return numerator == that.numerator && denominator == that.denominator;
+    }
+
+    public int hashCode() {
+        if(bigNumerator != null) {
+            return bigNumerator.hashCode() * 31 + bigDenominator.hashCode();
+        }
+        return Long.hashCode(numerator) * 31 + Long.hashCode(denominator);
+    }
+
+    public String toString() {
+        if(bigNumerator != null) {
+            if(isInteger()) {
+                return bigNumerator.toString();
+            }
+            return bigNumerator + "/" + bigDenominator;
+        }
+        if(isInteger()) {
+            return "" + numerator;
+        }
+        return numerator + "/" + denominator;
+    }
+}
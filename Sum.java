@@ -0,0 +1,194 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The running total of a whole chain of + and -, such as 1/2 + 1/3 - 1/4 + ... + 1/50. As a
+ * chain of binary Operators, every + would find a common denominator and reduce its answer
+ * before the next + could start. A Sum instead adds each term straight onto a running total
+ * over a running denominator, and only reduces once at the end (or when the numbers get too
+ * big for a long).
+ *
+ * Operator.simplifyAnswer() makes one for every long chain of + and - without x in it. The
+ * terms are found one at a time as they are needed, left to right, so nothing is copied, and
+ * the first error in the chain is still the one reported. A Sum isn't a Node, and is never
+ * part of a tree.
+ *
+ * Each term is added straight over the running denominator if its denominator divides it (the
+ * usual case once the common denominator has been found), and otherwise the running
+ * denominator becomes the least common multiple of the two. Only when that doesn't fit in a
+ * long is the total reduced, and if it still doesn't fit, it moves to BigIntegers.
+ */
+class Sum implements Accumulator {
+
+    //Chains with fewer terms than this are left as Operators
+    static final int MIN_TERMS = 8;
+
+    //The parts of the chain still to go through, with if each one is subtracted. The
+    //left side is always on top, so the terms come out left to right
+    private Node[] stack = new Node[MIN_TERMS];
+    private boolean[] stackSigns = new boolean[MIN_TERMS];
+    private int top = 0;
+    private boolean subtract; //if the last term given out is subtracted
+
+    private long numerator = 0;
+    private long denominator = 1;
+
+    private BigInteger bigNumerator; //only used once the total is too big for longs
+    private BigInteger bigDenominator;
+    private int unreduced; //terms added to the big total since it was last reduced
+
+    //The big total is reduced every this many terms, so it doesn't keep growing
+    private static final int REDUCE_EVERY = 64;
+
+    private Sum(Node root) {
+        stack[top++] = root;
+    }
+
+    /**
+     * A new running total, starting at 0, for the chain of + and - at the top of root. Anything
+     * else below it is a term, so 1-(2+3*4) has the terms 1, 2 and 3*4, with the last two
+     * subtracted.
+     */
+    static Sum of(Node root) {
+        return new Sum(root);
+    }
+
+    /* If root is a chain of + and - with at least MIN_TERMS terms. Stops counting once it gets there */
+    static boolean isLongChain(Node root) {
+        //Parser builds a+b+c as (a+b)+c, so most chains only go down the left side, and can be
+        //counted without a stack
+        int terms = 1;
+        boolean branches = false; //if a right side is part of the chain too
+        for(Node node = root; isChain(node) && terms < MIN_TERMS; node = node.left) {
+            terms++;
+            branches |= isChain(node.right);
+        }
+        if(terms >= MIN_TERMS || !branches) {
+            return terms >= MIN_TERMS;
+        }
+
+        terms = 0;
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty() && terms < MIN_TERMS) {
+            Node node = stack.remove(stack.size() - 1);
+            if(isChain(node)) {
+                stack.add(node.right);
+                stack.add(node.left);
+            } else {
+                terms++;
+            }
+        }
+        return terms >= MIN_TERMS;
+    }
+
+    static boolean isChain(Node node) {
+        return (node instanceof Operator) && (node.value == 0 || node.value == 1);
+    }
+
+    public Node nextTerm() {
+        while(top > 0) {
+            top--;
+            Node node = stack[top];
+            boolean negative = stackSigns[top];
+            //Go down the left side, leaving the right sides for later
+            while(isChain(node)) {
+                if(top == stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                    stackSigns = Arrays.copyOf(stackSigns, stack.length);
+                }
+                stack[top] = node.right;
+                stackSigns[top++] = negative ^ (node.value == 1);
+                node = node.left;
+            }
+            subtract = negative;
+            return node;
+        }
+        return null;
+    }
+
+    public Node add(Node answer) {
+        if(bigNumerator == null) {
+            //Read the Numbers straight off the answer, so most terms don't need a Rational
+            Number top = (Number) (answer.isOperator() ? answer.left : answer);
+            Number bottom = answer.isOperator() ? (Number) answer.right : null;
+            if(!top.isBig() && top.longValue() != Long.MIN_VALUE && (bottom == null || !bottom.isBig())) {
+                long topValue = subtract ? -top.longValue() : top.longValue();
+                if(addFast(topValue, (bottom == null) ? 1 : bottom.longValue())) {
+                    return null;
+                }
+            }
+            bigNumerator = BigInteger.valueOf(numerator);
+            bigDenominator = BigInteger.valueOf(denominator);
+        }
+
+        Rational value = Rational.of(answer);
+        if(subtract) {
+            value = value.negate();
+        }
+        addBig(value.numerator(), value.denominator());
+        return null;
+    }
+
+    /* @return false if it doesn't fit in a long, and then nothing was changed */
+    private boolean addFast(long top, long bottom) {
+        if(tryAdd(top, bottom)) {
+            return true;
+        }
+        if(numerator == Long.MIN_VALUE) {
+            return false;
+        }
+        //Reduce the total, and try once more
+        long common = Rational.gcd(numerator, denominator);
+        numerator /= common;
+        denominator /= common;
+        return tryAdd(top, bottom);
+    }
+
+    /* @return false if it doesn't fit in a long, and then nothing was changed */
+    private boolean tryAdd(long top, long bottom) {
+        long newNumerator;
+        long newDenominator;
+        try {
+            if(denominator % bottom == 0) {
+                newNumerator = Math.addExact(numerator, Math.multiplyExact(top, denominator / bottom));
+                newDenominator = denominator;
+            } else {
+                long common = Rational.gcd(denominator, bottom);
+                newNumerator = Math.addExact(Math.multiplyExact(numerator, bottom / common), Math.multiplyExact(top, denominator / common));
+                newDenominator = Math.multiplyExact(denominator, bottom / common);
+            }
+        } catch(ArithmeticException overflow) {
+            return false;
+        }
+        numerator = newNumerator;
+        denominator = newDenominator;
+        return true;
+    }
+
+    private void addBig(BigInteger top, BigInteger bottom) {
+        if(bigDenominator.mod(bottom).signum() == 0) {
+            bigNumerator = bigNumerator.add(top.multiply(bigDenominator.divide(bottom)));
+        } else {
+            BigInteger common = bigDenominator.gcd(bottom);
+            bigNumerator = bigNumerator.multiply(bottom.divide(common)).add(top.multiply(bigDenominator.divide(common)));
+            bigDenominator = bigDenominator.multiply(bottom.divide(common));
+        }
+
+        unreduced++;
+        if(unreduced >= REDUCE_EVERY) {
+            BigInteger common = bigNumerator.gcd(bigDenominator);
+            bigNumerator = bigNumerator.divide(common);
+            bigDenominator = bigDenominator.divide(common);
+            unreduced = 0;
+        }
+    }
+
+    public Node answer() {
+        if(bigNumerator != null) {
+            return Rational.of(bigNumerator, bigDenominator).toNode();
+        }
+        return Rational.of(numerator, denominator).toNode();
+    }
+}
@@ -0,0 +1,187 @@
+import java.math.BigInteger;
+
+/**
+ * Reads the tokens of a math expression one at a time straight out of a CharSequence. Nothing
+ * is copied: whitespace is skipped in place, digits are accumulated into a long, and characters
+ * are classified with a lookup table. Like Parser.parse(), which removes all the spaces first,
+ * whitespace between digits doesn't split a number, so "12 34" is read as 1234. The Tokenizer
+ * can be reset onto new text, so one instance can read many expressions without creating any
+ * garbage. Only numbers too big for a long need a new object, from bigNumber().
+ */
+public class Tokenizer {
+
+    /* Token types returned by next() */
+    public static final int END = 0;
+    public static final int NUMBER = 1;
+    public static final int VARIABLE = 2;
+    public static final int OPERATOR = 3;
+    public static final int OPEN = 4;
+    public static final int CLOSE = 5;
+    public static final int INVALID = 6;
+    private static final int WHITESPACE = 7;
+
+    /* Token type of each ASCII character. Anything outside the table is INVALID */
+    private static final byte[] CHAR_TYPES = new byte[128];
+    /* Operator value (the same numbers Operator uses) of each ASCII character */
+    private static final byte[] OPERATOR_VALUES = new byte[128];
+
+    static {
+        for(int c = 0; c < 128; c++) {
+            CHAR_TYPES[c] = INVALID;
+        }
+        for(char c = '0'; c <= '9'; c++) {
+            CHAR_TYPES[c] = NUMBER;
+        }
+        CHAR_TYPES['x'] = VARIABLE;
+        CHAR_TYPES['('] = OPEN;
+        CHAR_TYPES[')'] = CLOSE;
+        CHAR_TYPES[' '] = WHITESPACE;
+        CHAR_TYPES['\t'] = WHITESPACE;
+        CHAR_TYPES['\r'] = WHITESPACE;
+        CHAR_TYPES['\n'] = WHITESPACE;
+
+        String operators = "+-*/";
+        for(int i = 0; i < operators.length(); i++) {
+            CHAR_TYPES[operators.charAt(i)] = OPERATOR;
+            OPERATOR_VALUES[operators.charAt(i)] = (byte) i;
+        }
+    }
+
+    private CharSequence text;
+    private int position;
+    private int end;
+
+    private int tokenStart;
+    private long number;
+    private boolean numberTooBig;
+    private char character;
+    private int tokenCount;
+
+
+    public Tokenizer(CharSequence text) {
+        reset(text, 0, text.length());
+    }
+
+    /** Points the Tokenizer at the start of new text */
+    public void reset(CharSequence text) {
+        reset(text, 0, text.length());
+    }
+
+    /** Points the Tokenizer at the characters of text from start (inclusive) to end (exclusive) */
+    public void reset(CharSequence text, int start, int end) {
+        this.text = text;
+        this.position = start;
+        this.end = end;
+        this.tokenStart = start;
+        this.tokenCount = 0;
+    }
+
+    /**
+     * Reads the next token, skipping any whitespace before it
+     * @return the type of the token, which is END once the text runs out
+     */
+    public int next() {
+        while(position < end) {
+            char c = text.charAt(position);
+            int type = (c < 128) ? CHAR_TYPES[c] : INVALID;
+
+            if(type == WHITESPACE) {
+                position++;
+                continue;
+            }
+
+            tokenStart = position;
+            character = c;
+            position++;
+            tokenCount++;
+
+            if(type == NUMBER) {
+                readNumber(c);
+            }
+            return type;
+        }
+
+        tokenStart = end;
+        return END;
+    }
+
+    /* Accumulates the rest of the digits into number */
+    private void readNumber(char first) {
+        long value = first - '0';
+        boolean tooBig = false;
+
+        while(position < end) {
+            char c = text.charAt(position);
+            if(c < 128 && CHAR_TYPES[c] == WHITESPACE) {
+                //Keep going if the number carries on after the whitespace
+                int next = position + 1;
+                while(next < end && text.charAt(next) < 128 && CHAR_TYPES[text.charAt(next)] == WHITESPACE) {
+                    next++;
+                }
+                if(next == end || text.charAt(next) < '0' || text.charAt(next) > '9') {
+                    break;
+                }
+                position = next;
+                c = text.charAt(position);
+            } else if(c < '0' || c > '9') {
+                break;
+            }
+            if(value > (Long.MAX_VALUE - (c - '0')) / 10) {
+                tooBig = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+            position++;
+        }
+
+        number = value;
+        numberTooBig = tooBig;
+    }
+
+    /* The value of the last NUMBER token, if it wasn't too big for a long */
+    public long number() {
+        return number;
+    }
+
+    /* If the digits of the last NUMBER token didn't fit in a long */
+    public boolean numberTooBig() {
+        return numberTooBig;
+    }
+
+    /* The digits of the last NUMBER token as a BigInteger, for when numberTooBig() */
+    public BigInteger bigNumber() {
+        StringBuilder digits = new StringBuilder(position - tokenStart);
+        for(int i = tokenStart; i < position; i++) {
+            char c = text.charAt(i);
+            if(c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return new BigInteger(digits.toString());
+    }
+
+    /* The Operator value (0 to 3 for + - * /) of the last OPERATOR token */
+    public int operator() {
+        return OPERATOR_VALUES[character];
+    }
+
+    /* The character which started the last token */
+    public char character() {
+        return character;
+    }
+
+    /* Index in the text where the last token started */
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    /* Index in the text just after the last token. A number may have whitespace inside it */
+    public int tokenEnd() {
+        return position;
+    }
+
+    /* How many tokens have been read since the last reset */
+    public int tokenCount() {
+        return tokenCount;
+    }
+}
@@ -0,0 +1,210 @@
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compact binary form of expression trees, so a parsed tree can be saved or sent to another
+ * process and loaded again without parsing the text. The tree is written in prefix order (each
+ * node before its children), one opcode byte per node:
+ *
+ *     0 to 3       an Operator (+ - * /), followed by its left and then its right child
+ *     4            a Number, followed by the number as a zigzag varint
+ *     5            a Number too big for a long, followed by a varint length and then the
+ *                  bytes of BigInteger.toByteArray()
+ *     6            a Variable, followed by its name as a varint
+ *     16 to 255    a Number from 0 to 239, with nothing after it
+ *
+ * A varint is 7 bits per byte, lowest first, with the top bit set on every byte but the last.
+ * Zigzag turns small negative numbers into small positive ones first (0, -1, 1, -2, ... become
+ * 0, 1, 2, 3, ...), so they stay short too. 1+2*3 takes 5 bytes.
+ *
+ * Trees can simply be written one after another. read() reads one tree from the buffer's
+ * position and leaves the position just after it, so it can be called again for the next one.
+ * Reading works directly on the buffer (which may be a memory-mapped file) without copying it.
+ */
+public class TreeCodec {
+
+    private static final int NUMBER = 4;
+    private static final int BIG_NUMBER = 5;
+    private static final int VARIABLE = 6;
+    private static final int SMALL_NUMBER = 16;
+    private static final int MAX_SMALL_NUMBER = 255 - SMALL_NUMBER;
+
+    /* The tree as bytes */
+    public static byte[] encode(Node root) {
+        Writer writer = new Writer();
+        writer.write(root);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Reads one tree, starting at the buffer's position
+     * @throws IllegalArgumentException if the bytes aren't a tree
+     */
+    public static Node read(ByteBuffer in) {
+        //Operators still waiting for a child, and their left child once it has been read
+        Operator[] waiting = new Operator[16];
+        Node[] lefts = new Node[16];
+        int count = 0;
+
+        try {
+            while(true) {
+                int opcode = in.get() & 0xFF;
+                Node node;
+
+                if(opcode <= 3) {
+                    if(count == waiting.length) {
+                        waiting = Arrays.copyOf(waiting, count * 2);
+                        lefts = Arrays.copyOf(lefts, count * 2);
+                    }
+                    waiting[count] = new Operator(opcode);
+                    lefts[count] = null;
+                    count++;
+                    continue;
+                } else if(opcode >= SMALL_NUMBER) {
+                    node = new Number(opcode - SMALL_NUMBER);
+                } else if(opcode == NUMBER) {
+                    long zigzag = readVarLong(in);
+                    node = new Number((zigzag >>> 1) ^ -(zigzag & 1));
+                } else if(opcode == BIG_NUMBER) {
+                    int length = (int) readVarLong(in);
+                    if(length <= 0 || length > in.remaining()) {
+                        throw new IllegalArgumentException("Invalid number length: " + length);
+                    }
+                    byte[] bytes = new byte[length];
+                    in.get(bytes);
+                    node = new Number(new BigInteger(bytes));
+                } else if(opcode == VARIABLE) {
+                    node = new Variable((char) readVarLong(in));
+                } else {
+                    throw new IllegalArgumentException("Invalid opcode: " + opcode);
+                }
+
+                //Give the finished node to the operator waiting for it. If that finishes the
+                //operator too, keep going up
+                while(true) {
+                    if(count == 0) {
+                        return node;
+                    }
+                    if(lefts[count-1] == null) {
+                        lefts[count-1] = node;
+                        break;
+                    }
+                    Operator parent = waiting[--count];
+                    parent.setChildren(lefts[count], node);
+                    waiting[count] = null;
+                    lefts[count] = null;
+                    node = parent;
+                }
+            }
+        } catch(BufferUnderflowException e) {
+            throw new IllegalArgumentException("The tree ends too early", e);
+        }
+    }
+
+    /* Reads every tree from the buffer's position to its limit */
+    public static ArrayList<Node> readAll(ByteBuffer in) {
+        ArrayList<Node> trees = new ArrayList<>();
+        while(in.hasRemaining()) {
+            trees.add(read(in));
+        }
+        return trees;
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+
+    /**
+     * Writes trees one after another into a growing array. Use one Writer to put many trees in
+     * the same file or message.
+     */
+    public static class Writer {
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+
+        /* Writes the tree in prefix order, using a stack instead of recursion */
+        public void write(Node root) {
+            ArrayList<Node> stack = new ArrayList<>();
+            stack.add(root);
+
+            while(!stack.isEmpty()) {
+                Node node = stack.remove(stack.size() - 1);
+
+                if(node.isOperator()) {
+                    writeByte(node.value());
+                    stack.add(node.right);
+                    stack.add(node.left);
+
+                } else if(node.isVariable()) {
+                    writeByte(VARIABLE);
+                    writeVarLong(node.value());
+
+                } else if(node instanceof Number) {
+                    Number number = (Number) node;
+                    if(number.isBig()) {
+                        byte[] big = number.bigValue().toByteArray();
+                        writeByte(BIG_NUMBER);
+                        writeVarLong(big.length);
+                        ensureRoom(big.length);
+                        System.arraycopy(big, 0, bytes, length, big.length);
+                        length += big.length;
+                    } else if(number.longValue() >= 0 && number.longValue() <= MAX_SMALL_NUMBER) {
+                        writeByte(SMALL_NUMBER + (int) number.longValue());
+                    } else {
+                        long value = number.longValue();
+                        writeByte(NUMBER);
+                        writeVarLong((value << 1) ^ (value >> 63));
+                    }
+
+                } else {
+                    throw new IllegalArgumentException("Only Operators, Numbers and Variables can be written");
+                }
+            }
+        }
+
+        private void writeByte(int b) {
+            ensureRoom(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void writeVarLong(long value) {
+            ensureRoom(10);
+            while((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void ensureRoom(int extra) {
+            if(length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        public int size() {
+            return length;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        /* The bytes written so far, without copying them. Writing more may replace the array */
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+    }
+}
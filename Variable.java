@@ -23,9 +23,12 @@ public class Variable extends Node {
     }
 
     public NodeWithHistory simplify() {
-        NodeWithHistory wrapper = new NodeWithHistory();
-        wrapper.node = new Variable((char)value);
-        return wrapper;
+        Variable copy = new Variable((char)value);
+        return new NodeWithHistory(copy, new History(copy));
+    }
+
+    public Node simplifyAnswer() {
+        return this;
     }
 
     public String text() {
@@ -36,4 +39,8 @@ public class Variable extends Node {
         return "" + (char)value;
     }
 
+    public String toStringIncludingChildren() {
+        return this.toString();
+    }
+
 }
\ No newline at end of file
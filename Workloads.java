@@ -0,0 +1,69 @@
+import java.util.Random;
+
+/**
+ * Makes synthetic expressions for benchmarks and load tests. Everything comes from a seeded
+ * Random, so the same seed always gives exactly the same expressions, and runs on different
+ * days (or different machines) measure the same work.
+ */
+public class Workloads {
+
+    /* Kinds of expression */
+    public static final int INTEGERS = 0; //only + - and *, so every value stays whole
+    public static final int FRACTIONS = 1; //sums and differences of fractions like 3/7
+    public static final int MIXED = 2; //any operator, with some parentheses
+
+    /**
+     * Builds an expression
+     * @param random where the choices come from
+     * @param terms how many numbers the expression has
+     * @param kind INTEGERS, FRACTIONS or MIXED
+     * @param maxNumber numbers go from 1 to maxNumber
+     */
+    public static String expression(Random random, int terms, int kind, long maxNumber) {
+        StringBuilder expression = new StringBuilder();
+        int open = 0;
+
+        for(int i = 0; i < terms; i++) {
+            if(kind == FRACTIONS) {
+                if(i > 0) {
+                    expression.append(random.nextBoolean() ? '+' : '-');
+                }
+                expression.append(number(random, maxNumber)).append('/').append(number(random, maxNumber));
+                continue;
+            }
+
+            if(i > 0) {
+                int operators = (kind == INTEGERS) ? 3 : 4;
+                expression.append("+-*/".charAt(random.nextInt(operators)));
+            }
+            if(kind == MIXED && i < terms - 1 && random.nextInt(5) == 0) {
+                expression.append('(');
+                open++;
+            }
+            expression.append(number(random, maxNumber));
+            if(open > 0 && random.nextInt(3) == 0) {
+                expression.append(')');
+                open--;
+            }
+        }
+
+        for(; open > 0; open--) {
+            expression.append(')');
+        }
+        return expression.toString();
+    }
+
+    /* count expressions with the same settings, all from one seed */
+    public static String[] expressions(long seed, int count, int terms, int kind, long maxNumber) {
+        Random random = new Random(seed);
+        String[] expressions = new String[count];
+        for(int i = 0; i < count; i++) {
+            expressions[i] = expression(random, terms, kind, maxNumber);
+        }
+        return expressions;
+    }
+
+    private static long number(Random random, long maxNumber) {
+        return 1 + Math.floorMod(random.nextLong(), maxNumber);
+    }
+}
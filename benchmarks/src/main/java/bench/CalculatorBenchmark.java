@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each of the benchmarks defined in Benchmarks under JMH. Every name gets its own forked
+ * JVMs, so one benchmark's JIT profile and garbage never affect another's. Add -prof gc for the
+ * bytes allocated per operation.
+ *
+ * JMH won't run benchmarks from a class without a package, and a class with a package can't
+ * use the calculator's classes directly, so the operation is fetched by reflection in setup().
+ * It's only a Runnable after that, so nothing is reflected while timing.
+ *
+ *     java -jar benchmarks/target/benchmarks.jar -p name=parse.short,parse.long
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class CalculatorBenchmark {
+
+    //The same names as in Benchmarks
+    @Param({"parse.short", "parse.long", "parseSinglePass.short", "parseSinglePass.long",
+            "parseSinglePass.veryLong", "parseResult.short", "parseResult.invalid",
+            "simplify.integers", "simplify.fractions", "simplify.fractions.values",
+            "simplifyAnswer.integers", "simplifyAnswer.fractions", "simplifyAnswer.bigFractions",
+            "optimize.fractions",
+            "rational.of.small", "rational.gcd.small", "rational.leastCommonMultiple.small", "rational.add.small",
+            "rational.of.medium", "rational.gcd.medium", "rational.leastCommonMultiple.medium", "rational.add.medium",
+            "rational.of.large", "rational.gcd.large", "rational.leastCommonMultiple.large", "rational.add.large",
+            "evaluate.program.integers", "evaluate.program.fractions",
+            "evaluate.compiled.integers", "evaluate.compiled.fractions",
+            "toStringIncludingChildren", "printTree"})
+    public String name;
+
+    private Runnable operation;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        operation = (Runnable) Class.forName("Benchmarks").getMethod("operation", String.class).invoke(null, name);
+    }
+
+    @Benchmark
+    public void run() {
+        operation.run();
+    }
+}